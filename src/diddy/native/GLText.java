@@ -7,6 +7,25 @@ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLI
 
 import android.graphics.Typeface;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.opengl.GLES11;
+import android.opengl.GLUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 // GLText converted to Monkey from:
 // http://fractiousg.blogspot.com.au/2012/04/rendering-text-in-opengl-on-android.html
@@ -26,7 +45,28 @@ class GLText{
 	public final static int FONT_SIZE_MIN = 6;         // Minumum Font Size (Pixels)
 	public final static int FONT_SIZE_MAX = 180;       // Maximum Font Size (Pixels)
 
-	public final static int CHAR_BATCH_SIZE = 100;     // Number of Characters to Render Per Batch
+	public final static int CHAR_BATCH_SIZE = 100;     // Initial Number of Characters a Batch Can Hold
+
+	public final static int PAGE_SIZE = 512;           // Dynamic Glyph Page Size (Square; Pixels)
+
+	public final static int ALIGN_LEFT = 0;            // Horizontal Alignments for DrawWrapped
+	public final static int ALIGN_CENTER = 1;
+	public final static int ALIGN_RIGHT = 2;
+
+	public final static int LAYOUT_CACHE_SIZE = 256;   // Number of Wrapped Strings to Remember
+
+	public final static int ATLAS_SIZE = 1024;         // Shared Packed Atlas Page Size (Square; Pixels)
+
+	public final static int SDF_SIZE = 48;             // Font Size Distance Field Atlases Are Baked At (Pixels)
+	public final static int SDF_SPREAD = 6;            // Padding Measured Around Each Glyph's Field (Pixels at SDF_SIZE)
+	public final static int SDF_EDGE = 1;              // Field Ramps From 0 to 1 Across This Far Either Side of the Outline (Pixels at SDF_SIZE)
+	public final static int SDF_UPSCALE = 4;           // Glyphs Are Rasterised This Many Times Larger Before Measuring Distances
+
+	public final static int LOAD_NONE = 0;             // Load States
+	public final static int LOAD_BAKING = 1;           // Rasterising on the Loader Thread
+	public final static int LOAD_BAKED = 2;            // Waiting for the Render Thread to Upload
+	public final static int LOAD_READY = 3;
+	public final static int LOAD_FAILED = 4;
 
 	int fontPadX, fontPadY;                            // Font Padding (Pixels; On Each Side, ie. Doubled on Both X+Y Axis)
 
@@ -41,11 +81,49 @@ class GLText{
 	final float[] charWidths;                          // Width of Each Character (Actual; Pixels)
 	TextureRegion[] charRgn;                           // Region of Each Character (Texture Coordinates)
 	int cellWidth, cellHeight;                         // Character Cell Width/Height
+	int fontSize;                                      // Requested Font Size (Pixels)
+	String fontFile, fontText;                         // Arguments of the Last Load, for SetSize
+	int loadPadX, loadPadY;
+	boolean loadAsync;                                 // The Last Load Was LoadAsync, So SetSize Reloads the Same Way
 
 	float scaleX, scaleY;                              // Font Scale (X,Y Axis)
 	float spaceX;  
 
 	boolean allChars;
+	static boolean diskCache = true;                   // Read/Write Atlases From the Disk Cache
+	
+	// packed mode places each baked glyph by its actual bounds on pages shared by all packed fonts,
+	// instead of uniform cells on a power-of-two texture of its own
+	boolean packed;                                    // Use Packed Mode for the Next Load
+	boolean isPacked;                                  // The Current Load is Packed
+	PackedGlyph[] packedRgn;                           // Packed Region of Each Character
+	int textureBytes;                                  // Texture Memory Used by the Baked Glyphs (Bytes)
+	
+	// distance field mode bakes one atlas at SDF_SIZE whatever the requested size, storing each pixel's distance
+	// to the glyph outline instead of coverage; drawing scales the quads and alpha tests at the outline, so edges
+	// stay sharp at any size and SetSize only changes the scale
+	boolean distanceField;                             // Use Distance Field Mode for the Next Load
+	boolean isDistanceField;                           // The Current Load is a Distance Field
+	
+	// code points outside CHAR_START..CHAR_END are rasterised on first use into pages of cellWidth x cellHeight
+	// cells, and the least recently used glyph's cell is reused once all fonts together reach the texture budget
+	static int glyphBudget = 8 * 1024 * 1024;          // Texture Memory Budget for Dynamic Glyphs (Bytes; 0 = Disabled)
+	static int glyphBytes;                             // Texture Memory Used by Dynamic Glyph Pages (Bytes)
+	Paint paint;                                       // Paint Used to Rasterise Glyphs (Created on First Use)
+	HashMap<Integer,Glyph> glyphs;                     // Dynamic Glyphs by Code Point
+	ArrayList<GlyphPage> pages;                        // Dynamic Glyph Pages
+	Glyph lruHead, lruTail;                            // Dynamic Glyphs, Most Recently Used First
+	int drawStamp;                                     // Incremented per Draw, so Glyphs in Use are Not Evicted
+	
+	// LoadAsync measures and rasterises on the loader thread into baked; the render thread then hands it to the
+	// surface or the shared atlas the first time IsLoaded or Draw sees LOAD_BAKED
+	volatile int loadState = LOAD_NONE;
+	boolean bakeOk;                                    // Result of the Last Bake
+	Bitmap baked;                                      // Cell Atlas, or Staging Bitmap of Packed Glyphs
+	
+	HashMap<Integer,Float> advances;                   // Advance Widths of Code Points Above CHAR_END
+	LinkedHashMap<String,String[]> layouts;            // Wrapped Lines, Keyed by Width and Text
+	final static String[] NO_LINES = new String[0];    // WrapText Result While Loading
 	
 	Activity activity;
 	Context context;
@@ -65,6 +143,7 @@ class GLText{
 		
 		charWidths = new float[CHAR_CNT];               // Create the Array of Character Widths
 		charRgn = new TextureRegion[CHAR_CNT];          // Create the Array of Character Regions
+		packedRgn = new PackedGlyph[CHAR_CNT];          // Create the Array of Packed Regions
 
 		// initialize remaining members
 		fontPadX = 0;
@@ -85,25 +164,227 @@ class GLText{
 		scaleX = 1.0f;                                  // Default Scale = 1 (Unscaled)
 		scaleY = 1.0f;                                  // Default Scale = 1 (Unscaled)
 		spaceX = 0.0f;
+		
+		glyphs = new HashMap<Integer,Glyph>();
+		pages = new ArrayList<GlyphPage>();
+		advances = new HashMap<Integer,Float>();
+		layouts = new LinkedHashMap<String,String[]>( 16, 0.75f, true )  {
+			protected boolean removeEldestEntry(Map.Entry<String,String[]> eldest)  {
+				return size() > LAYOUT_CACHE_SIZE;
+			}
+		};
+	}
+	
+	static public void SetGlyphBudget(int bytes) {
+		glyphBudget = bytes;
+	}
+	
+	static public int GetGlyphBudget() {
+		return glyphBudget;
+	}
+	
+	// between BeginBatch and EndBatch, Draw only queues quads; EndBatch submits them grouped by texture page
+	static public void BeginBatch() {
+		GLTextBatch.Flush();
+		GLTextBatch.active = true;
+	}
+	
+	static public void EndBatch() {
+		GLTextBatch.Flush();
+		GLTextBatch.active = false;
+	}
+	
+	// number of texture page runs submitted to mojo (each is one GL draw unless mojo flushes for another reason)
+	static public int GetDrawCalls() {
+		return GLTextBatch.drawCalls;
+	}
+	
+	static public int GetDrawnChars() {
+		return GLTextBatch.quads;
+	}
+	
+	static public void ResetDrawStats() {
+		GLTextBatch.drawCalls = 0;
+		GLTextBatch.quads = 0;
 	}
 	
 	public boolean CreateText(String file, String text, int size){
 		return Load(file, text, size, 0, 0);
 	}
 	
+	// takes effect on the next Load
+	public void SetPacked(boolean packed){
+		this.packed = packed;
+	}
+	
+	public boolean GetPacked(){
+		return packed;
+	}
+	
+	// takes effect on the next Load; fonts created with CreateText are never distance fields
+	public void SetDistanceField(boolean distanceField){
+		this.distanceField = distanceField;
+	}
+	
+	public boolean GetDistanceField(){
+		return distanceField;
+	}
+	
+	public int GetTextureBytes(){
+		return textureBytes;
+	}
+	
+	static public int GetAtlasBytes(){
+		return GLTextAtlas.bytes;
+	}
+	
+	// sizes are 0 until the font has loaded, since LoadAsync fills in the metrics on the loader thread
 	public int CalcWidth(String text){
-		return 0;
+		if ( !IsLoaded() ) return 0;
+		return (int)Math.ceil( MeasureWidth( text, 0, text.length() ) );
 	}
 	
+	public int CalcHeight(){
+		if ( !IsLoaded() ) return 0;
+		return (int)Math.ceil( fontHeight * scaleY );
+	}
+	
+	// reloads the font at the new size with the same file and padding, or just rescales a distance field;
+	// a font from LoadAsync is reloaded in the background, one from Load blocks until it's baked again
 	public void SetSize(int size)
 	{
-		//TODO: 
+		if ( fontFile == null || size == fontSize ) return;
+		if ( isDistanceField )  {
+			fontSize = size;
+			scaleX = scaleY = (float)size / SDF_SIZE;
+			return;
+		}
+		if ( loadAsync )
+			LoadAsync( fontFile, size, loadPadX, loadPadY );
+		else
+			Load( fontFile, fontText, size, loadPadX, loadPadY );
 	}
 	
 	public int GetSize()
 	{
-		//TODO: 
-		return 0;
+		return fontSize;
+	}
+	
+	// scaled width of text[start..end), matching how far Draw advances
+	float MeasureWidth(String text, int start, int end) {
+		float width = 0;
+		for ( int i = start; i < end; )  {
+			int cp = text.codePointAt( i );
+			i += Character.charCount( cp );
+			width += Advance( cp ) + spaceX;
+		}
+		return width * scaleX;
+	}
+	
+	float Advance(int cp) {
+		if ( cp > CHAR_END )  {
+			Glyph g = glyphs.get( cp );
+			if ( g != null ) return g.advance;
+			Float a = advances.get( cp );
+			if ( a != null ) return a;
+			if ( glyphBudget > 0 && loadState == LOAD_READY && GetPaint() != null )  {
+				char[] s = Character.toChars( cp );
+				float w = paint.measureText( s, 0, s.length );
+				advances.put( cp, w );
+				return w;
+			}
+		}
+		int c = cp - CHAR_START;
+		if ( c < 0 || c >= CHAR_CNT )
+			c = CHAR_UNKNOWN;
+		return charWidths[c];
+	}
+	
+	// greedy word wrap into lines no wider than width (0 = only break at newlines); the result is cached, so don't modify it
+	public String[] WrapText(String text, int width) {
+		if ( !IsLoaded() ) return NO_LINES;             // Not Cached, as the Metrics Aren't Known Yet
+		String key = width + "|" + scaleX + "|" + spaceX + "|" + text;
+		String[] lines = layouts.get( key );
+		if ( lines != null ) return lines;
+		
+		ArrayList<String> out = new ArrayList<String>();
+		int len = text.length();
+		int lineStart = 0;
+		while ( lineStart <= len )  {
+			int lineEnd = text.indexOf( '\n', lineStart );
+			if ( lineEnd < 0 ) lineEnd = len;
+			WrapLine( text, lineStart, lineEnd, width, out );
+			lineStart = lineEnd + 1;
+		}
+		lines = out.toArray( new String[out.size()] );
+		layouts.put( key, lines );
+		return lines;
+	}
+	
+	void WrapLine(String text, int start, int end, int width, ArrayList<String> out) {
+		if ( width <= 0 || MeasureWidth( text, start, end ) <= width )  {
+			out.add( text.substring( start, end ) );
+			return;
+		}
+		while ( start < end )  {
+			// take as many characters as fit, then back up to the last space if there is one
+			int fit = start;
+			float w = 0;
+			while ( fit < end )  {
+				int cp = text.codePointAt( fit );
+				float cw = ( Advance( cp ) + spaceX ) * scaleX;
+				if ( w + cw > width && fit > start ) break;
+				w += cw;
+				fit += Character.charCount( cp );
+			}
+			int lineEnd = fit;
+			if ( fit < end )  {
+				int space = text.lastIndexOf( ' ', fit );
+				if ( space > start ) lineEnd = space;
+			}
+			out.add( text.substring( start, lineEnd ) );
+			start = lineEnd;
+			while ( start < end && text.charAt( start ) == ' ' ) start++;
+		}
+	}
+	
+	public void DrawWrapped(String text, float x, float y, int width, int align) {
+		if ( !IsLoaded() ) return;
+		String[] lines = WrapText( text, width );
+		float lineHeight = fontHeight * scaleY;
+		for ( int i = 0; i < lines.length; i++ )  {
+			float lx = x;
+			if ( align != ALIGN_LEFT )  {
+				float lw = MeasureWidth( lines[i], 0, lines[i].length() );
+				lx += align == ALIGN_CENTER ? ( width - lw ) / 2.0f : width - lw;
+			}
+			Draw( lines[i], lx, y + i * lineHeight );
+		}
+	}
+	
+	Paint GetPaint() {
+		if ( paint == null && fontFile != null )  {
+			Typeface tf = Typeface.createFromAsset( assets, "monkey/"+fontFile );  // Create the Typeface from Font File
+			paint = new Paint();                         // Create Android Paint Instance
+			paint.setAntiAlias( true );                  // Enable Anti Alias
+			paint.setTextSize( BakeSize() );             // Set Text Size
+			paint.setColor( 0xffffffff );                // Set ARGB (White, Opaque)
+			paint.setTypeface( tf );                     // Set Typeface
+		}
+		return paint;
+	}
+	
+	// cache rasterised atlases in app-private storage, keyed by font file, size, padding and mode
+	static public void SetDiskCache(boolean enabled) {
+		diskCache = enabled;
+	}
+	
+	static public boolean GetDiskCache() {
+		return diskCache;
+	}
+	
+	static public void ClearDiskCache() {
+		GLTextCache.Clear();
 	}
 	
 	public boolean Load(String file, int size, int padX, int padY){
@@ -111,6 +392,38 @@ class GLText{
 	}
 	
 	public boolean Load(String file, String text, int size, int padX, int padY){
+		BeginLoad( file, text, size, padX, padY );
+		loadAsync = false;
+		return FinishLoad( Bake() );
+	}
+	
+	// returns immediately; poll IsLoaded, which also finishes the load on the calling (render) thread
+	public void LoadAsync(String file, int size, int padX, int padY){
+		BeginLoad( file, "", size, padX, padY );
+		loadAsync = true;
+		loadState = LOAD_BAKING;
+		GLTextLoader.Submit( this );
+	}
+	
+	public boolean IsLoaded(){
+		if ( loadState == LOAD_BAKED )
+			FinishLoad( bakeOk );
+		return loadState == LOAD_READY;
+	}
+	
+	public boolean IsLoading(){
+		int state = loadState;
+		return state == LOAD_BAKING || state == LOAD_BAKED;
+	}
+	
+	// reset for a new load; runs on the render thread, since it releases textures
+	void BeginLoad(String file, String text, int size, int padX, int padY){
+		WaitLoad();
+		fontFile = file;
+		fontText = text;
+		loadPadX = padX;
+		loadPadY = padY;
+		
 		// Append monkey folder!!!
 		file = "monkey/"+file;
 		
@@ -119,13 +432,44 @@ class GLText{
 			allChars = true;
 		
 		
+		fontSize = size;                                // Save Font Size
+		isDistanceField = distanceField && allChars;
+		fontPadX = fontPadY = isDistanceField ? SDF_SPREAD : 0;  // Leave Room for the Field Outside the Outline
+		scaleX = scaleY = isDistanceField ? (float)size / SDF_SIZE : 1.0f;
+		paint = null;
+		ClearGlyphs();
+		ReleasePacked();
+		isPacked = packed && allChars && !isDistanceField;
+		advances.clear();
+		layouts.clear();
+		loadState = LOAD_NONE;
+	}
+	
+	// a load still baking on the loader thread is using this font's fields: let it finish and drop the result
+	synchronized void WaitLoad() {
+		boolean interrupted = false;
+		while ( loadState == LOAD_BAKING )  {
+			try {
+				wait();
+			} catch ( InterruptedException e )  {
+				interrupted = true;
+			}
+		}
+		if ( interrupted ) Thread.currentThread().interrupt();
+		if ( baked != null ) baked.recycle();
+		baked = null;
+	}
+	
+	// measure and rasterise into baked; touches neither GL nor the shared atlas, so it can run on the loader thread
+	boolean Bake(){
+		String text = fontText;
+		
+		// a cached atlas skips loading the typeface and rasterising altogether
+		if ( allChars && diskCache && GLTextCache.Read( this ) )
+			return true;
+		
 		// load the font and setup paint instance for drawing
-		Typeface tf = Typeface.createFromAsset( assets, file );  // Create the Typeface from Font File
-		Paint paint = new Paint();                      // Create Android Paint Instance
-		paint.setAntiAlias( true );                     // Enable Anti Alias
-		paint.setTextSize( size );                      // Set Text Size
-		paint.setColor( 0xffffffff );                   // Set ARGB (White, Opaque)
-		paint.setTypeface( tf );                        // Set Typeface
+		Paint paint = GetPaint();
 		
 		// get font metrics
 		Paint.FontMetrics fm = paint.getFontMetrics();  // Get Font Metrics
@@ -184,6 +528,9 @@ class GLText{
 				textureSize = 1024;                          // Set 1024 Texture Size
 			else                                            // ELSE IF Max Size is Larger Than 80 (and Less than FONT_SIZE_MAX)
 				textureSize = 2048;                          // Set 2048 Texture Size
+			
+			if ( isPacked )
+				return BakePacked( textureSize * textureSize * 4 );
 				
 			// create an empty bitmap (alpha only)
 			bitmap = Bitmap.createBitmap( textureSize, textureSize, Bitmap.Config.ARGB_8888 );//Bitmap.Config.ALPHA_8 );  // Create Bitmap
@@ -205,7 +552,7 @@ class GLText{
 		if (allChars) {
 			for ( char c = CHAR_START; c <= CHAR_END; c++ )  {  // FOR Each Character
 				s[0] = c;                                    // Set Character to Draw
-				canvas.drawText( s, 0, 1, x, y, paint );     // Draw Character
+				DrawChar( canvas, bitmap, s, x, y, paint );  // Draw Character
 				x += cellWidth;                              // Move to Next Character
 				if ( ( x + cellWidth - fontPadX ) > textureSize )  {  // IF End of Line Reached
 					x = fontPadX;                             // Set X for New Row
@@ -217,8 +564,8 @@ class GLText{
 		}
 		s[0] = CHAR_NONE;                               // Set Character to Use for NONE
 		
-		canvas.drawText( s, 0, 1, x, y, paint );        // Draw Character
-		surface.SetBitmap( bitmap );
+		DrawChar( canvas, bitmap, s, x, y, paint );     // Draw Character
+		baked = bitmap;
 
 		// setup the array of character texture regions
 		x = 0;                                          // Initialize X
@@ -232,9 +579,131 @@ class GLText{
 			}
 		}
 		
+		if ( allChars && diskCache )
+			GLTextCache.Write( this, bitmap );
+		return true;
+	}
+	
+	// hand the baked bitmap to the surface, or copy packed glyphs from staging into the shared atlas
+	boolean FinishLoad(boolean ok) {
+		Bitmap bitmap = baked;
+		baked = null;
+		if ( !ok || bitmap == null )  {
+			loadState = LOAD_FAILED;
+			return false;
+		}
+		if ( isPacked )  {
+			int area = 0;
+			int[] pixels = new int[0];
+			for ( int c = 0; c < CHAR_CNT; c++ )  {
+				PackedGlyph g = packedRgn[c];
+				if ( g.w == 0 ) continue;
+				int sx = g.x;
+				int sy = g.y;
+				GLTextAtlas.Pack( g );
+				if ( pixels.length < g.w * g.h ) pixels = new int[g.w * g.h];
+				bitmap.getPixels( pixels, 0, g.w, sx, sy, g.w, g.h );
+				g.page.bitmap.setPixels( pixels, 0, g.w, g.x, g.y, g.w, g.h );
+				g.page.MarkDirty( g.x, g.y, g.w, g.h );
+				area += g.w * g.h;
+			}
+			bitmap.recycle();
+			textureBytes = area * 4;
+		} else  {
+			surface.SetBitmap( bitmap );
+			textureBytes = bitmap.getWidth() * bitmap.getHeight() * 4;
+		}
+		loadState = LOAD_READY;
+		return true;
+	}
+	
+	// draw one baked character with its baseline origin at (x, y)
+	void DrawChar(Canvas canvas, Bitmap bitmap, char[] s, float x, float y, Paint paint) {
+		if ( !isDistanceField )  {
+			canvas.drawText( s, 0, 1, x, y, paint );
+			return;
+		}
+		float originY = ( cellHeight - 1 ) - fontDescent - fontPadY;
+		GLTextDistanceField.Draw( bitmap, s, (int)x - fontPadX, (int)( y - originY ), cellWidth, cellHeight, fontPadX, originY, paint );
+	}
+	
+	// glyphs are rasterised at the requested size, except in distance field mode
+	int BakeSize() {
+		return isDistanceField ? SDF_SIZE : fontSize;
+	}
+	
+	// glyphs are drawn by their bounds onto a staging bitmap; FinishLoad packs them into the shared atlas
+	boolean BakePacked(int cellBytes) {
+		char[] s = new char[1];
+		Rect[] bounds = new Rect[CHAR_CNT];
+		int originY = (int)( ( cellHeight - 1 ) - fontDescent - fontPadY );  // Baseline Within a Cell, as in Cell Mode
+		int area = 0;
+		for ( int c = 0; c < CHAR_CNT; c++ )  {
+			s[0] = c == CHAR_UNKNOWN ? (char)CHAR_NONE : (char)( CHAR_START + c );
+			PackedGlyph g = new PackedGlyph();
+			packedRgn[c] = g;
+			bounds[c] = new Rect();
+			paint.getTextBounds( s, 0, 1, bounds[c] );
+			if ( bounds[c].isEmpty() ) continue;         // Nothing to Draw (eg. Space)
+			
+			// one pixel of clearance on each side keeps filtering from bleeding into neighbours
+			g.w = bounds[c].width() + 2;
+			g.h = bounds[c].height() + 2;
+			g.offX = fontPadX + bounds[c].left - 1;
+			g.offY = originY + bounds[c].top - 1;
+			area += g.w * g.h;
+		}
+		
+		Bitmap staging = StagePacked();
+		Canvas canvas = new Canvas( staging );
+		for ( int c = 0; c < CHAR_CNT; c++ )  {
+			PackedGlyph g = packedRgn[c];
+			if ( g.w == 0 ) continue;
+			s[0] = c == CHAR_UNKNOWN ? (char)CHAR_NONE : (char)( CHAR_START + c );
+			canvas.save();
+			canvas.clipRect( g.x, g.y, g.x + g.w, g.y + g.h );
+			canvas.drawText( s, 0, 1, g.x + 1 - bounds[c].left, g.y + 1 - bounds[c].top, paint );
+			canvas.restore();
+		}
+		baked = staging;
+		android.util.Log.i( "[Monkey]", "GLText: packed " + fontFile + " at " + fontSize + "px into " + ( area * 4 ) + " bytes (cell layout: " + cellBytes + " bytes)" );
+		if ( diskCache )
+			GLTextCache.Write( this, staging );
 		return true;
 	}
 	
+	// lay the packed glyphs (w and h set) out in rows on a new staging bitmap, leaving each one's x and y there
+	Bitmap StagePacked() {
+		int x = 0, y = 0, rowHeight = 0;
+		for ( int c = 0; c < CHAR_CNT; c++ )  {
+			PackedGlyph g = packedRgn[c];
+			if ( g.w == 0 ) continue;
+			if ( x + g.w > ATLAS_SIZE )  {
+				x = 0;
+				y += rowHeight;
+				rowHeight = 0;
+			}
+			g.x = x;
+			g.y = y;
+			x += g.w;
+			rowHeight = Math.max( rowHeight, g.h );
+		}
+		Bitmap staging = Bitmap.createBitmap( ATLAS_SIZE, Math.max( 1, y + rowHeight ), Bitmap.Config.ARGB_8888 );
+		staging.eraseColor( 0x00000000 );
+		return staging;
+	}
+	
+	void ReleasePacked() {
+		if ( !isPacked ) return;
+		for ( int c = 0; c < CHAR_CNT; c++ )  {
+			PackedGlyph g = packedRgn[c];
+			if ( g != null && g.page != null ) g.page.Release( g.w * g.h );
+			packedRgn[c] = null;
+		}
+		isPacked = false;
+		textureBytes = 0;
+	}
+	
 	private int getNextPOT(int a) {
 		int b = 1;
 		while (b < a){
@@ -257,33 +726,768 @@ class GLText{
 	}
 	
 	public void Draw(String text, float x, float y)  {
-		if (!allChars)
+		if (!allChars || !IsLoaded())
 			return;
 			
+		if ( !GLTextBatch.StateMatches() )              // Colour or Matrix Changed Since Quads Were Queued
+			GLTextBatch.Flush();
+		GLTextBatch.SetMode( scaleX, isDistanceField );
 		SetMatrix();
+		PrepareGlyphs(text);                            // Rasterise and Upload Any New Dynamic Glyphs First
+		if ( isPacked )
+			GLTextAtlas.Upload();
 		
 		float chrHeight = cellHeight * scaleY;          // Calculate Scaled Character Height
 		float chrWidth = cellWidth * scaleX;            // Calculate Scaled Character Width
 		int len = text.length();                        // Get String Length
 		x += ( chrWidth / 2.0f ) - ( fontPadX * scaleX );  // Adjust Start X
 		y += ( chrHeight / 2.0f ) - ( fontPadY * scaleY );  // Adjust Start Y
-		for ( int i = 0; i < len; i++ )  {              // FOR Each Character in String
-			int c = (int)text.charAt( i ) - CHAR_START;  // Calculate Character Index (Offset by First Char in Font)
+		for ( int i = 0; i < len; )  {                  // FOR Each Code Point in String
+			int cp = text.codePointAt( i );
+			i += Character.charCount( cp );
+			if ( cp > CHAR_END )  {                      // IF Dynamic Glyph
+				Glyph g = glyphs.get( cp );
+				if ( g != null )  {
+					GLTextBatch.Add(g.page.surface, x, y, g.x, g.y, g.w, g.h);
+					x += ( g.advance + spaceX ) * scaleX;
+					continue;
+				}
+			}
+			int c = cp - CHAR_START;                     // Calculate Character Index (Offset by First Char in Font)
 			if ( c < 0 || c >= CHAR_CNT )                // IF Character Not In Font
 				c = CHAR_UNKNOWN;                         // Set to Unknown Character Index
 			
-			bb_graphics.g_renderDevice.DrawSurface2(surface, x, y, charRgn[c].x, charRgn[c].y, charRgn[c].w, charRgn[c].h);
+			if ( isPacked )  {
+				PackedGlyph g = packedRgn[c];
+				if ( g.page != null )
+					GLTextBatch.Add(g.page.surface, x + g.offX, y + g.offY, g.x, g.y, g.w, g.h);
+			} else
+				GLTextBatch.Add(surface, x, y, charRgn[c].x, charRgn[c].y, charRgn[c].w, charRgn[c].h);
 
 			x += ( charWidths[c] + spaceX ) * scaleX;    // Advance X Position by Scaled Character Width
 		}
+		if ( !GLTextBatch.active )
+			GLTextBatch.Flush();
+	}
+	
+	// make sure every code point in text above CHAR_END has a glyph, then upload changed pages in one go
+	void PrepareGlyphs(String text) {
+		drawStamp++;
+		boolean dirty = false;
+		int len = text.length();
+		for ( int i = 0; i < len; )  {
+			int cp = text.codePointAt( i );
+			i += Character.charCount( cp );
+			if ( cp <= CHAR_END ) continue;
+			Glyph g = glyphs.get( cp );
+			if ( g == null )  {
+				g = AddGlyph( cp );
+				if ( g == null ) continue;
+				dirty = true;
+			} else  {
+				TouchGlyph( g );
+			}
+			g.stamp = drawStamp;
+		}
+		if ( dirty )  {
+			GLTextBatch.Flush();                         // Quads Already Queued May Use Cells We Just Overwrote
+			bb_graphics.g_renderDevice.Flush();
+			for ( GlyphPage page : pages ) page.Upload();
+		}
+	}
+	
+	Glyph AddGlyph(int cp) {
+		if ( glyphBudget <= 0 || GetPaint() == null ) return null;
+		
+		// CJK glyphs are usually a full em wide, which can be wider than any ASCII character
+		int cw = Math.max( cellWidth, BakeSize() + ( 2 * fontPadX ) );
+		
+		// find a free cell: the newest page, a new page if the budget allows, else the least recently used glyph's cell
+		GlyphPage page = pages.isEmpty() ? null : pages.get( pages.size() - 1 );
+		int cell = -1;
+		if ( page != null && page.used < page.capacity )  {
+			cell = page.used++;
+		} else if ( page == null || glyphBytes + GlyphPage.Bytes( cw, cellHeight ) <= glyphBudget || lruTail == null || lruTail.stamp == drawStamp )  {
+			page = new GlyphPage( cw, cellHeight );
+			pages.add( page );
+			glyphBytes += page.bytes;
+			cell = page.used++;
+		} else  {
+			Glyph old = lruTail;
+			UnlinkGlyph( old );
+			glyphs.remove( old.codePoint );
+			page = old.page;
+			cell = old.cell;
+		}
+		
+		Glyph g = new Glyph();
+		g.codePoint = cp;
+		g.page = page;
+		g.cell = cell;
+		g.x = ( cell % page.cols ) * cw;
+		g.y = ( cell / page.cols ) * cellHeight;
+		g.w = cw - 1;
+		g.h = cellHeight - 1;
+		char[] s = Character.toChars( cp );
+		g.advance = paint.measureText( s, 0, s.length );
+		float originY = ( cellHeight - 1 ) - fontDescent - fontPadY;
+		if ( isDistanceField )  {
+			GLTextDistanceField.Draw( page.bitmap, s, g.x, g.y, cw, cellHeight, fontPadX, originY, paint );
+			page.MarkDirty( g.x, g.y, cw, cellHeight );
+		} else
+			page.DrawGlyph( s, g.x, g.y, cw, cellHeight, fontPadX, originY, paint );
+		
+		glyphs.put( cp, g );
+		TouchGlyph( g );
+		return g;
+	}
+	
+	void TouchGlyph(Glyph g) {
+		if ( lruHead == g ) return;
+		UnlinkGlyph( g );
+		g.next = lruHead;
+		if ( lruHead != null ) lruHead.prev = g;
+		lruHead = g;
+		if ( lruTail == null ) lruTail = g;
+	}
+	
+	void UnlinkGlyph(Glyph g) {
+		if ( g.prev != null ) g.prev.next = g.next;
+		if ( g.next != null ) g.next.prev = g.prev;
+		if ( lruHead == g ) lruHead = g.next;
+		if ( lruTail == g ) lruTail = g.prev;
+		g.prev = g.next = null;
+	}
+	
+	// the cell size changes with every Load, so dynamic glyphs from a previous load can't be kept
+	void ClearGlyphs() {
+		for ( GlyphPage page : pages )  {
+			glyphBytes -= page.bytes;
+			page.Discard();
+		}
+		pages.clear();
+		glyphs.clear();
+		lruHead = lruTail = null;
 	}
 	
 	public void DrawTexture(float x, float y)  {
+		if ( !IsLoaded() ) return;
+		GLTextBatch.Flush();
 		SetMatrix();
+		if ( isPacked )  {                              // Draw the Shared Page Holding the First Visible Glyph
+			GLTextAtlas.Upload();
+			for ( PackedGlyph g : packedRgn )  {
+				if ( g.page == null ) continue;
+				bb_graphics.g_renderDevice.DrawSurface(g.page.surface, x, y);
+				break;
+			}
+			return;
+		}
 		bb_graphics.g_renderDevice.DrawSurface(surface, x, y);
 	}
 }
 
+// quads queued by GLText.Draw, submitted one texture page at a time so that mojo, which only
+// flushes its vertex buffer when the surface changes, draws each page with a single GL call
+class GLTextBatch {
+	static boolean active;
+	static int count;
+	static gxtkSurface[] surfaces = new gxtkSurface[GLText.CHAR_BATCH_SIZE];
+	static float[] positions = new float[GLText.CHAR_BATCH_SIZE * 2];
+	static int[] regions = new int[GLText.CHAR_BATCH_SIZE * 4];
+	static ArrayList<gxtkSurface> runs = new ArrayList<gxtkSurface>();
+	static int drawCalls, quads;
+	
+	// how the queued quads are drawn: scaled about the origin, and alpha tested for distance fields
+	static float scale = 1.0f;
+	static boolean distanceField;
+	
+	// graphics state in effect when the first quad was queued
+	static float ix, iy, jx, jy, tx, ty;
+	static float red, green, blue, alpha;
+	static int blend;
+	
+	static void SetMode(float scale, boolean distanceField) {
+		if ( scale == GLTextBatch.scale && distanceField == GLTextBatch.distanceField ) return;
+		Flush();
+		GLTextBatch.scale = scale;
+		GLTextBatch.distanceField = distanceField;
+	}
+	
+	static void Add(gxtkSurface surface, float x, float y, int srcX, int srcY, int srcW, int srcH) {
+		if ( count == 0 ) SaveState();
+		if ( count == surfaces.length )  {
+			int size = count * 2;
+			gxtkSurface[] s = new gxtkSurface[size];
+			float[] p = new float[size * 2];
+			int[] r = new int[size * 4];
+			System.arraycopy( surfaces, 0, s, 0, count );
+			System.arraycopy( positions, 0, p, 0, count * 2 );
+			System.arraycopy( regions, 0, r, 0, count * 4 );
+			surfaces = s;
+			positions = p;
+			regions = r;
+		}
+		surfaces[count] = surface;
+		positions[count * 2] = x / scale;               // Drawn With the Matrix Scaled Up Again
+		positions[count * 2 + 1] = y / scale;
+		regions[count * 4] = srcX;
+		regions[count * 4 + 1] = srcY;
+		regions[count * 4 + 2] = srcW;
+		regions[count * 4 + 3] = srcH;
+		count++;
+	}
+	
+	static void Flush() {
+		if ( count == 0 ) return;
+		gxtkGraphics device = bb_graphics.g_renderDevice;
+		boolean restore = !StateMatches() || scale != 1.0f;
+		if ( restore ) ApplySavedState();
+		if ( distanceField )  {
+			// the texture's alpha is multiplied by the current alpha, so the outline moves with it
+			device.Flush();
+			GLES11.glEnable( GLES11.GL_ALPHA_TEST );
+			GLES11.glAlphaFunc( GLES11.GL_GEQUAL, 0.5f * alpha );
+		}
+		
+		for ( int i = 0; i < count; i++ )  {
+			if ( !runs.contains( surfaces[i] ) ) runs.add( surfaces[i] );
+		}
+		for ( gxtkSurface surface : runs )  {
+			for ( int i = 0; i < count; i++ )  {
+				if ( surfaces[i] != surface ) continue;
+				device.DrawSurface2( surface, positions[i * 2], positions[i * 2 + 1], regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3] );
+			}
+			drawCalls++;
+		}
+		quads += count;
+		
+		if ( distanceField )  {
+			device.Flush();
+			GLES11.glDisable( GLES11.GL_ALPHA_TEST );
+		}
+		if ( restore ) ApplyCurrentState();
+		runs.clear();
+		java.util.Arrays.fill( surfaces, 0, count, null );
+		count = 0;
+	}
+	
+	static void SaveState() {
+		c_GraphicsContext ctx = bb_graphics.g_context;
+		ix = ctx.m_ix; iy = ctx.m_iy; jx = ctx.m_jx; jy = ctx.m_jy; tx = ctx.m_tx; ty = ctx.m_ty;
+		red = ctx.m_color_r; green = ctx.m_color_g; blue = ctx.m_color_b; alpha = ctx.m_alpha;
+		blend = ctx.m_blend;
+	}
+	
+	static boolean StateMatches() {
+		if ( count == 0 ) return true;
+		c_GraphicsContext ctx = bb_graphics.g_context;
+		return ix == ctx.m_ix && iy == ctx.m_iy && jx == ctx.m_jx && jy == ctx.m_jy && tx == ctx.m_tx && ty == ctx.m_ty &&
+			red == ctx.m_color_r && green == ctx.m_color_g && blue == ctx.m_color_b && alpha == ctx.m_alpha && blend == ctx.m_blend;
+	}
+	
+	static void ApplySavedState() {
+		gxtkGraphics device = bb_graphics.g_renderDevice;
+		device.SetMatrix( ix * scale, iy * scale, jx * scale, jy * scale, tx, ty );
+		device.SetColor( red, green, blue );
+		device.SetAlpha( alpha );
+		device.SetBlend( blend );
+	}
+	
+	static void ApplyCurrentState() {
+		c_GraphicsContext ctx = bb_graphics.g_context;
+		gxtkGraphics device = bb_graphics.g_renderDevice;
+		device.SetMatrix( ctx.m_ix, ctx.m_iy, ctx.m_jx, ctx.m_jy, ctx.m_tx, ctx.m_ty );
+		ctx.m_matDirty = 0;
+		device.SetColor( ctx.m_color_r, ctx.m_color_g, ctx.m_color_b );
+		device.SetAlpha( ctx.m_alpha );
+		device.SetBlend( ctx.m_blend );
+	}
+}
+
+// baked atlases and their metrics, saved to app-private storage so later launches skip the typeface and rasterising
+// glyph images are stored as 8-bit alpha and expanded back to premultiplied white when read
+class GLTextCache {
+	final static int MAGIC = 0x474c5443;               // 'GLTC'
+	final static int VERSION = 4;
+	
+	static File Dir() {
+		Context context = BBAndroidGame.AndroidGame().GetActivity().getApplicationContext();
+		return new File( context.getCacheDir(), "gltext" );
+	}
+	
+	// rebuild everything after an app update, in case the font files changed
+	static long AppStamp() {
+		try {
+			Context context = BBAndroidGame.AndroidGame().GetActivity().getApplicationContext();
+			return context.getPackageManager().getPackageInfo( context.getPackageName(), 0 ).lastUpdateTime;
+		} catch ( Exception e )  {
+			return 0;
+		}
+	}
+	
+	static File FileFor(GLText t) {
+		String name = t.fontFile.replaceAll( "[^A-Za-z0-9._-]", "_" );
+		return new File( Dir(), name + "_" + t.BakeSize() + "_" + t.loadPadX + "_" + t.loadPadY + "_" + Mode( t ) + ".glt" );
+	}
+	
+	// distance field, packed or cell layout
+	static char Mode(GLText t) {
+		return t.isDistanceField ? 's' : t.isPacked ? 'p' : 'c';
+	}
+	
+	static void Clear() {
+		File[] files = Dir().listFiles();
+		if ( files == null ) return;
+		for ( File f : files ) f.delete();
+	}
+	
+	static boolean Read(GLText t) {
+		File file = FileFor( t );
+		if ( !file.exists() ) return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 65536 ) );
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != AppStamp() ) return false;
+			if ( in.readInt() != GLText.CHAR_START || in.readInt() != GLText.CHAR_END || in.readChar() != Mode( t ) ) return false;
+			
+			t.fontHeight = in.readFloat();
+			t.fontAscent = in.readFloat();
+			t.fontDescent = in.readFloat();
+			t.charWidthMax = in.readFloat();
+			t.charHeight = in.readFloat();
+			t.cellWidth = in.readInt();
+			t.cellHeight = in.readInt();
+			t.textureSize = in.readInt();
+			for ( int c = 0; c < GLText.CHAR_CNT; c++ ) t.charWidths[c] = in.readFloat();
+			
+			if ( t.isPacked )  {
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )  {
+					PackedGlyph g = new PackedGlyph();
+					t.packedRgn[c] = g;
+					g.w = in.readInt();
+					g.h = in.readInt();
+					g.offX = in.readInt();
+					g.offY = in.readInt();
+				}
+				Bitmap staging = t.StagePacked();
+				t.baked = staging;
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )  {
+					PackedGlyph g = t.packedRgn[c];
+					if ( g.w > 0 ) ReadAlpha( in, staging, g.x, g.y, g.w, g.h );
+				}
+			} else  {
+				int w = in.readInt();
+				int h = in.readInt();
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )
+					t.charRgn[c] = new TextureRegion( t.textureSize, t.textureSize, in.readInt(), in.readInt(), in.readInt(), in.readInt() );
+				Bitmap bitmap = Bitmap.createBitmap( w, h, Bitmap.Config.ARGB_8888 );
+				t.baked = bitmap;
+				ReadAlpha( in, bitmap, 0, 0, w, h );
+			}
+			return true;
+		} catch ( IOException e )  {
+			// a truncated or corrupt file: drop it and rasterise as normal
+			if ( t.baked != null ) t.baked.recycle();
+			t.baked = null;
+			file.delete();
+			return false;
+		} finally {
+			Close( in );
+		}
+	}
+	
+	static void Write(GLText t, Bitmap bitmap) {
+		File dir = Dir();
+		File file = FileFor( t );
+		File tmp = new File( dir, file.getName() + ".tmp" );
+		DataOutputStream out = null;
+		try {
+			dir.mkdirs();
+			out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 65536 ) );
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeLong( AppStamp() );
+			out.writeInt( GLText.CHAR_START );
+			out.writeInt( GLText.CHAR_END );
+			out.writeChar( Mode( t ) );
+			
+			out.writeFloat( t.fontHeight );
+			out.writeFloat( t.fontAscent );
+			out.writeFloat( t.fontDescent );
+			out.writeFloat( t.charWidthMax );
+			out.writeFloat( t.charHeight );
+			out.writeInt( t.cellWidth );
+			out.writeInt( t.cellHeight );
+			out.writeInt( t.textureSize );
+			for ( int c = 0; c < GLText.CHAR_CNT; c++ ) out.writeFloat( t.charWidths[c] );
+			
+			// packed glyphs are written from the staging bitmap, before FinishLoad moves them into the atlas
+			if ( t.isPacked )  {
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )  {
+					PackedGlyph g = t.packedRgn[c];
+					out.writeInt( g.w );
+					out.writeInt( g.h );
+					out.writeInt( g.offX );
+					out.writeInt( g.offY );
+				}
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )  {
+					PackedGlyph g = t.packedRgn[c];
+					if ( g.w > 0 ) WriteAlpha( out, bitmap, g.x, g.y, g.w, g.h );
+				}
+			} else  {
+				int w = bitmap.getWidth();
+				int h = bitmap.getHeight();
+				out.writeInt( w );
+				out.writeInt( h );
+				for ( int c = 0; c < GLText.CHAR_CNT; c++ )  {
+					TextureRegion r = t.charRgn[c];
+					out.writeInt( r.x );
+					out.writeInt( r.y );
+					out.writeInt( r.w );
+					out.writeInt( r.h );
+				}
+				WriteAlpha( out, bitmap, 0, 0, w, h );
+			}
+			out.close();
+			out = null;
+			if ( !tmp.renameTo( file ) ) tmp.delete();
+		} catch ( IOException e )  {
+			android.util.Log.w( "[Monkey]", "GLText: couldn't write atlas cache: " + e );
+			tmp.delete();
+		} finally {
+			Close( out );
+		}
+	}
+	
+	static void ReadAlpha(DataInputStream in, Bitmap bitmap, int x, int y, int w, int h) throws IOException {
+		byte[] alpha = new byte[w];
+		int[] row = new int[w];
+		for ( int j = 0; j < h; j++ )  {
+			in.readFully( alpha );
+			for ( int i = 0; i < w; i++ )  {
+				// setPixels takes unpremultiplied colour and premultiplies it itself, so this is white at alpha a
+				row[i] = ( ( alpha[i] & 0xff ) << 24 ) | 0x00ffffff;
+			}
+			bitmap.setPixels( row, 0, w, x, y + j, w, 1 );
+		}
+	}
+	
+	static void WriteAlpha(DataOutputStream out, Bitmap bitmap, int x, int y, int w, int h) throws IOException {
+		byte[] alpha = new byte[w];
+		int[] row = new int[w];
+		for ( int j = 0; j < h; j++ )  {
+			bitmap.getPixels( row, 0, w, x, y + j, w, 1 );
+			for ( int i = 0; i < w; i++ ) alpha[i] = (byte)( row[i] >>> 24 );
+			out.write( alpha );
+		}
+	}
+	
+	static void Close(java.io.Closeable c) {
+		if ( c == null ) return;
+		try {
+			c.close();
+		} catch ( IOException e )  {
+		}
+	}
+}
+
+// a single background thread bakes fonts for GLText.LoadAsync, one at a time in the order requested
+class GLTextLoader {
+	static ExecutorService executor;
+	
+	static synchronized void Submit(final GLText t) {
+		if ( executor == null )  {
+			executor = Executors.newSingleThreadExecutor( new ThreadFactory()  {
+				public Thread newThread(Runnable r)  {
+					Thread thread = new Thread( r, "GLText loader" );
+					thread.setDaemon( true );
+					thread.setPriority( Thread.MIN_PRIORITY );
+					return thread;
+				}
+			} );
+		}
+		executor.execute( new Runnable()  {
+			public void run()  {
+				boolean ok = false;
+				try {
+					ok = t.Bake();
+				} catch ( RuntimeException e )  {
+					android.util.Log.w( "[Monkey]", "GLText: couldn't load " + t.fontFile + ": " + e );
+				}
+				synchronized ( t )  {
+					t.bakeOk = ok;
+					t.loadState = GLText.LOAD_BAKED;
+					t.notifyAll();
+				}
+			}
+		} );
+	}
+}
+
+// signed distance fields for GLText's distance field mode: each glyph is drawn SDF_UPSCALE times larger, the squared
+// distance from every pixel to the nearest pixel on the other side of the outline found with a two pass 1D distance
+// transform (Felzenszwalb & Huttenlocher), then sampled at the cell's size into alpha, with 0.5 on the outline.
+// the ramp is kept to SDF_EDGE either side, so alpha saturates just inside the outline and strokes of any width are
+// drawn opaque behind the alpha test; the same slope on both sides keeps the interpolated outline in place
+class GLTextDistanceField {
+	final static double INF = 1e20;
+	
+	static Bitmap bitmap;
+	static Canvas canvas;
+	static int[] pixels, row;
+	static float[] inside, outside;                    // Squared Distance to the Nearest Inside/Outside Pixel
+	static double[] f, d, z;
+	static int[] v;
+	
+	// fill the w x h cell at (x, y) on target with the field of s, its baseline origin at (originX, originY) in the cell
+	static synchronized void Draw(Bitmap target, char[] s, int x, int y, int w, int h, float originX, float originY, Paint paint) {
+		int up = GLText.SDF_UPSCALE;
+		int bw = w * up;
+		int bh = h * up;
+		Prepare( bw, bh, w );
+		
+		bitmap.eraseColor( 0x00000000 );
+		canvas.save();
+		canvas.scale( up, up );
+		canvas.drawText( s, 0, s.length, originX, originY, paint );
+		canvas.restore();
+		bitmap.getPixels( pixels, 0, bw, 0, 0, bw, bh );
+		
+		int n = bw * bh;
+		for ( int i = 0; i < n; i++ )  {
+			boolean in = ( pixels[i] >>> 24 ) >= 128;
+			inside[i] = in ? 0 : (float)INF;
+			outside[i] = in ? (float)INF : 0;
+		}
+		Transform( inside, bw, bh );
+		Transform( outside, bw, bh );
+		
+		float falloff = 0.5f / ( GLText.SDF_EDGE * up );
+		for ( int j = 0; j < h; j++ )  {
+			int k = ( j * up + up / 2 ) * bw + up / 2;
+			for ( int i = 0; i < w; i++, k += up )  {
+				float dist = (float)Math.sqrt( inside[k] ) - (float)Math.sqrt( outside[k] );  // Positive Outside the Glyph
+				float alpha = 0.5f - dist * falloff;
+				int a = alpha <= 0 ? 0 : alpha >= 1 ? 255 : (int)( alpha * 255 + 0.5f );
+				row[i] = ( a << 24 ) | 0x00ffffff;           // Unpremultiplied; setPixels Premultiplies It
+			}
+			target.setPixels( row, 0, w, x, y + j, w, 1 );
+		}
+	}
+	
+	// the scratch bitmap and buffers are kept between glyphs, since every cell of a font is the same size
+	static void Prepare(int bw, int bh, int w) {
+		if ( bitmap == null || bitmap.getWidth() != bw || bitmap.getHeight() != bh )  {
+			if ( bitmap != null ) bitmap.recycle();
+			bitmap = Bitmap.createBitmap( bw, bh, Bitmap.Config.ARGB_8888 );
+			canvas = new Canvas( bitmap );
+			pixels = new int[bw * bh];
+			inside = new float[bw * bh];
+			outside = new float[bw * bh];
+			int n = Math.max( bw, bh );
+			f = new double[n];
+			d = new double[n];
+			z = new double[n + 1];
+			v = new int[n];
+		}
+		if ( row == null || row.length < w ) row = new int[w];
+	}
+	
+	static void Transform(float[] grid, int w, int h) {
+		for ( int x = 0; x < w; x++ )  {
+			for ( int y = 0; y < h; y++ ) f[y] = grid[y * w + x];
+			Transform1D( h );
+			for ( int y = 0; y < h; y++ ) grid[y * w + x] = (float)d[y];
+		}
+		for ( int y = 0; y < h; y++ )  {
+			int o = y * w;
+			for ( int x = 0; x < w; x++ ) f[x] = grid[o + x];
+			Transform1D( w );
+			for ( int x = 0; x < w; x++ ) grid[o + x] = (float)d[x];
+		}
+	}
+	
+	// lower envelope of the parabolas rooted at each sample of f
+	static void Transform1D(int n) {
+		int k = 0;
+		v[0] = 0;
+		z[0] = -INF;
+		z[1] = INF;
+		for ( int q = 1; q < n; q++ )  {
+			double s = ( ( f[q] + q * q ) - ( f[v[k]] + v[k] * v[k] ) ) / ( 2 * q - 2 * v[k] );
+			while ( s <= z[k] )  {
+				k--;
+				s = ( ( f[q] + q * q ) - ( f[v[k]] + v[k] * v[k] ) ) / ( 2 * q - 2 * v[k] );
+			}
+			k++;
+			v[k] = q;
+			z[k] = s;
+			z[k + 1] = INF;
+		}
+		k = 0;
+		for ( int q = 0; q < n; q++ )  {
+			while ( z[k + 1] < q ) k++;
+			d[q] = ( q - v[k] ) * ( q - v[k] ) + f[v[k]];
+		}
+	}
+}
+
+class Glyph {
+	int codePoint;
+	float advance;                                     // Advance Width (Pixels)
+	GlyphPage page;
+	int cell;                                          // Cell Index on Page
+	int x, y, w, h;                                    // Region on Page (Pixels)
+	int stamp;                                         // Draw Stamp When Last Used
+	Glyph prev, next;                                  // LRU Links
+}
+
+class GlyphPage {
+	Bitmap bitmap;
+	Canvas canvas;
+	gxtkSurface surface;
+	int size;                                          // Page Size (Square; Pixels)
+	int cols, capacity, used;                          // Cells Per Row, Total Cells, Cells Handed Out
+	int bytes;                                         // Texture Memory (Bytes)
+	Rect dirty = new Rect();                           // Region Changed Since Last Upload
+	boolean isDirty;
+	
+	static int Bytes(int cellWidth, int cellHeight) {
+		int size = Math.max( GLText.PAGE_SIZE, Math.max( cellWidth, cellHeight ) );
+		return size * size * 4;
+	}
+	
+	GlyphPage(int cellWidth, int cellHeight) {
+		this( Math.max( GLText.PAGE_SIZE, Math.max( cellWidth, cellHeight ) ) );
+		cols = size / cellWidth;
+		capacity = cols * ( size / cellHeight );
+	}
+	
+	GlyphPage(int size) {
+		this.size = size;
+		bitmap = Bitmap.createBitmap( size, size, Bitmap.Config.ARGB_8888 );
+		bitmap.eraseColor( 0x00000000 );
+		canvas = new Canvas( bitmap );
+		surface = new gxtkSurface();
+		surface.SetBitmap( bitmap );
+		bytes = size * size * 4;
+	}
+	
+	void DrawGlyph(char[] s, int x, int y, int w, int h, float originX, float originY, Paint paint) {
+		DrawText( s, x + originX, y + originY, x, y, w, h, paint );
+	}
+	
+	// clear the region, draw the text with its baseline origin at (textX, textY), and mark the region for upload
+	void DrawText(char[] s, float textX, float textY, int x, int y, int w, int h, Paint paint) {
+		canvas.save();
+		canvas.clipRect( x, y, x + w, y + h );
+		canvas.drawColor( 0x00000000, PorterDuff.Mode.CLEAR );
+		canvas.drawText( s, 0, s.length, textX, textY, paint );
+		canvas.restore();
+		MarkDirty( x, y, w, h );
+	}
+	
+	void MarkDirty(int x, int y, int w, int h) {
+		if ( isDirty )  {
+			dirty.union( x, y, x + w, y + h );
+		} else  {
+			dirty.set( x, y, x + w, y + h );
+			isDirty = true;
+		}
+	}
+	
+	// push the changed region to the texture; mojo creates the texture from the whole bitmap on first Bind
+	void Upload() {
+		if ( !isDirty ) return;
+		isDirty = false;
+		if ( !surface.Bind() ) return;
+		Bitmap region = Bitmap.createBitmap( bitmap, dirty.left, dirty.top, dirty.width(), dirty.height() );
+		GLUtils.texSubImage2D( GLES11.GL_TEXTURE_2D, 0, dirty.left, dirty.top, region );
+		region.recycle();
+	}
+	
+	void Discard() {
+		surface.Discard();
+		bitmap = null;
+		canvas = null;
+	}
+}
+
+class PackedGlyph {
+	AtlasPage page;                                    // Null if the Character Draws Nothing
+	int x, y, w, h;                                    // Region on Page (Pixels)
+	int offX, offY;                                    // Offset of the Region From the Cell's Top/Left (Pixels)
+}
+
+// an atlas page packed with shelves: rows as tall as the first glyph placed in them,
+// filled left to right; once no live glyph remains on the page it is cleared and reused
+class AtlasPage extends GlyphPage {
+	ArrayList<int[]> shelves = new ArrayList<int[]>(); // { y, height, next free x }
+	int shelfEnd;                                      // Y Below the Last Shelf
+	int live;                                          // Area Used by Glyphs Still Loaded (Pixels)
+	
+	AtlasPage(int size) {
+		super( size );
+	}
+	
+	boolean Pack(PackedGlyph g) {
+		if ( g.w > size || g.h > size ) return false;
+		int[] best = null;
+		for ( int[] shelf : shelves )  {
+			// skip shelves much taller than the glyph, so small fonts don't waste the space of big ones
+			if ( shelf[1] < g.h || shelf[1] > g.h * 2 || shelf[2] + g.w > size ) continue;
+			if ( best == null || shelf[1] < best[1] ) best = shelf;
+		}
+		if ( best == null )  {
+			if ( shelfEnd + g.h > size ) return false;
+			best = new int[] { shelfEnd, g.h, 0 };
+			shelves.add( best );
+			shelfEnd += g.h;
+		}
+		g.page = this;
+		g.x = best[2];
+		g.y = best[0];
+		best[2] += g.w;
+		live += g.w * g.h;
+		return true;
+	}
+	
+	void Release(int area) {
+		live -= area;
+		if ( live > 0 ) return;
+		live = 0;
+		shelves.clear();
+		shelfEnd = 0;
+		bitmap.eraseColor( 0x00000000 );
+		MarkDirty( 0, 0, size, size );
+	}
+}
+
+class GLTextAtlas {
+	static ArrayList<AtlasPage> pages = new ArrayList<AtlasPage>();
+	static int bytes;                                  // Texture Memory Used by All Atlas Pages (Bytes)
+	
+	static void Pack(PackedGlyph g) {
+		for ( AtlasPage page : pages )  {
+			if ( page.Pack( g ) ) return;
+		}
+		AtlasPage page = new AtlasPage( GLText.ATLAS_SIZE );  // Glyphs Are At Most FONT_SIZE_MAX, So Always Fit
+		pages.add( page );
+		bytes += page.bytes;
+		page.Pack( g );
+	}
+	
+	static void Upload() {
+		for ( AtlasPage page : pages )  {
+			if ( !page.isDirty ) continue;
+			GLTextBatch.Flush();
+			bb_graphics.g_renderDevice.Flush();
+			page.Upload();
+		}
+	}
+}
+
 class TextureRegion {
 
 	//--Members--//
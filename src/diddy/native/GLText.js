@@ -4,6 +4,9 @@ function GLText(){
 	this.size = 0;
 	this.text = "";
 	this.textWidth = 0;
+	this.packed = false;
+	this.distanceField = false;
+	this.loadState = 0;
 	return this;
 }
 
@@ -12,6 +15,96 @@ GLText.GetNewInstance=function()
 	return new GLText();
 }
 
+// the browser rasterises text itself, so there is no glyph cache to budget
+GLText.glyphBudget = 0;
+
+GLText.SetGlyphBudget=function(bytes)
+{
+	GLText.glyphBudget = bytes;
+}
+
+GLText.GetGlyphBudget=function()
+{
+	return GLText.glyphBudget;
+}
+
+// canvas text is drawn immediately, so batching only counts calls
+GLText.drawCalls = 0;
+GLText.drawnChars = 0;
+
+GLText.BeginBatch=function()
+{
+}
+
+GLText.EndBatch=function()
+{
+}
+
+GLText.GetDrawCalls=function()
+{
+	return GLText.drawCalls;
+}
+
+GLText.GetDrawnChars=function()
+{
+	return GLText.drawnChars;
+}
+
+GLText.ResetDrawStats=function()
+{
+	GLText.drawCalls = 0;
+	GLText.drawnChars = 0;
+}
+
+// there are no atlases on HTML5; packing is remembered but has no effect
+GLText.GetAtlasBytes=function()
+{
+	return 0;
+}
+
+// the browser caches the font files itself; nothing is baked to disk
+GLText.diskCache = true;
+
+GLText.SetDiskCache=function(enabled)
+{
+	GLText.diskCache = enabled;
+}
+
+GLText.GetDiskCache=function()
+{
+	return GLText.diskCache;
+}
+
+GLText.ClearDiskCache=function()
+{
+}
+
+GLText.prototype.SetPacked=function(packed)
+{
+	this.packed = packed;
+}
+
+GLText.prototype.GetPacked=function()
+{
+	return this.packed;
+}
+
+// canvas text is already drawn from outlines at any size; the flag is only remembered
+GLText.prototype.SetDistanceField=function(distanceField)
+{
+	this.distanceField = distanceField;
+}
+
+GLText.prototype.GetDistanceField=function()
+{
+	return this.distanceField;
+}
+
+GLText.prototype.GetTextureBytes=function()
+{
+	return 0;
+}
+
 GLText.prototype.SetSize=function(size)
 {
 	this.size = size;
@@ -37,9 +130,33 @@ GLText.prototype.Load=function(font, size, xpad, ypad)
 	"));
 	document.head.appendChild(newStyle);
 	
+	this.loadState = 3;
 	return true;
 }
 
+// the browser fetches the font file itself; where the font loading API exists, wait for it
+GLText.prototype.LoadAsync=function(font, size, xpad, ypad)
+{
+	this.Load(font, size, xpad, ypad);
+	if (!document.fonts) return;
+	
+	var self = this;
+	this.loadState = 1;
+	document.fonts.load(size + 'px "' + font + '"').then(
+		function() { self.loadState = 3; },
+		function() { self.loadState = 4; });
+}
+
+GLText.prototype.IsLoaded=function()
+{
+	return this.loadState == 3;
+}
+
+GLText.prototype.IsLoading=function()
+{
+	return this.loadState == 1;
+}
+
 GLText.prototype.CreateText=function(font, text, size)
 {
 	this.font = font
@@ -58,6 +175,8 @@ GLText.prototype.Draw=function(text, x, y)
 	ctx.font = this.size + 'px "'+this.font+'"';
 	ctx.textBaseline = 'top';
 	ctx.fillText(text, x, y);
+	GLText.drawCalls++;
+	GLText.drawnChars += text.length;
 }
 
 GLText.prototype.DrawTexture=function(x, y)
@@ -73,4 +192,46 @@ GLText.prototype.CalcWidth=function(text)
 	this.textWidth = ctx.measureText(text).width;
 
 	return this.textWidth;
+}
+
+GLText.prototype.CalcHeight=function()
+{
+	return this.size;
+}
+
+GLText.prototype.WrapText=function(text, width)
+{
+	var canvas = document.getElementById( "GameCanvas" );
+	var ctx = canvas.getContext('2d');
+	ctx.font = this.size + 'px "'+this.font+'"';
+	var out = [];
+	var paragraphs = text.split("\n");
+	for (var p = 0; p < paragraphs.length; p++) {
+		var words = paragraphs[p].split(" ");
+		var line = "";
+		for (var w = 0; w < words.length; w++) {
+			var test = line.length ? line + " " + words[w] : words[w];
+			if (width > 0 && line.length && ctx.measureText(test).width > width) {
+				out.push(line);
+				line = words[w];
+			} else {
+				line = test;
+			}
+		}
+		out.push(line);
+	}
+	return out;
+}
+
+GLText.prototype.DrawWrapped=function(text, x, y, width, align)
+{
+	var lines = this.WrapText(text, width);
+	for (var i = 0; i < lines.length; i++) {
+		var lx = x;
+		if (align != 0) {
+			var lw = this.CalcWidth(lines[i]);
+			lx += align == 1 ? (width - lw) / 2 : width - lw;
+		}
+		this.Draw(lines[i], lx, y + i * this.size);
+	}
 }
\ No newline at end of file
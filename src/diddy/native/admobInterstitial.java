@@ -6,18 +6,22 @@ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLI
 */
 
 import com.google.android.gms.ads.*;
+import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * Simple Admob Interstitial support for Monkey
  * Note: Only works on Monkey < v84d due to changes in androidgame.java
  *       See bug report http://www.monkey-x.com/Community/posts.php?topic=10440
 */
-class AdmobInterstitial implements Runnable{
+class AdmobInterstitial implements Runnable, InterstitialPool.Loader<InterstitialAd>{
 
 	// kind of "singleton"
 	static AdmobInterstitial _admob;
-	// the ad
-	InterstitialAd interstitialAd;
+	// the preloaded ads
+	volatile InterstitialPool<InterstitialAd> pool;
+	// how many ads to keep loaded
+	int poolSize = 1;
 	// ad Unit ID
 	String adUnitId;
 	// test device ID
@@ -30,63 +34,318 @@ class AdmobInterstitial implements Runnable{
 		return _admob;
 	}
 
-	// displays the ad to the user if it is ready
-	public void ShowAd( ){
-		if (interstitialAd != null ) {
-			if (interstitialAd.isLoaded()) {
-				interstitialAd.show();
+	// displays an ad to the user if one is ready, returning false if none was
+	public boolean ShowAd( ){
+		InterstitialPool<InterstitialAd> pool = this.pool;
+		if (pool == null) return false;
+		final InterstitialAd ad = pool.Take();
+		if (ad == null) return false;
+		DiddyUiDispatcher.post(new Runnable() {
+			public void run() {
+				Show(ad);
 			}
-		}
+		});
+		return true;
+	}
+
+	public boolean IsReady( ){
+		return ReadyCount() > 0;
+	}
+
+	public int ReadyCount( ){
+		InterstitialPool<InterstitialAd> pool = this.pool;
+		return pool == null ? 0 : pool.ReadyCount();
+	}
+
+	// how many ads to keep loaded; more than one means a second show doesn't wait for a reload
+	public void SetPoolSize(int size){
+		poolSize = Math.max(1, size);
+		DiddyUiDispatcher.post("AdmobInterstitial.size", new Runnable() {
+			public void run() {
+				if (pool != null) pool.SetSize(poolSize);
+			}
+		});
+	}
+
+	// the fraction of ShowAd calls that found an ad ready
+	public float HitRate( ){
+		InterstitialPool<InterstitialAd> pool = this.pool;
+		return pool == null ? 0 : pool.HitRate();
+	}
+
+	// average milliseconds from requesting an ad to it being loaded
+	public int AverageFillMillis( ){
+		InterstitialPool<InterstitialAd> pool = this.pool;
+		return pool == null ? 0 : pool.AverageFillMillis();
+	}
+
+	public int FailedLoads( ){
+		InterstitialPool<InterstitialAd> pool = this.pool;
+		return pool == null ? 0 : pool.Failures();
 	}
 	
 	// start the thread 
 	private void startAd(String adUnitId, String testDeviceId){
 		this.adUnitId = adUnitId;
 		this.testDeviceId = testDeviceId;
-		BBAndroidGame.AndroidGame().GetGameView().post(this);
+		// keyed, so asking for the ad again before the first request has run only builds one
+		DiddyUiDispatcher.post("AdmobInterstitial", this);
 	}
 	
-	// loads an ad
-	private void loadAd(){
-		if (interstitialAd != null ) {
-			AdRequest adRequest = null;
-			if (testDeviceId.length()>0) {
-				adRequest = new AdRequest.Builder().addTestDevice(testDeviceId).build();
-			} else {
-				adRequest = new AdRequest.Builder().build();
-			}
-			interstitialAd.loadAd(adRequest);
+	// the runner; a new unit or test device replaces the pool and any ads it had loaded
+	public void run(){
+		String tag = adUnitId + "|" + testDeviceId;
+		if (pool != null) {
+			if (tag.equals(pool.tag)) return;
+			pool.Stop();
 		}
+		final android.os.Handler handler = new android.os.Handler(android.os.Looper.getMainLooper());
+		pool = new InterstitialPool<InterstitialAd>(this, new InterstitialPool.Scheduler() {
+			public long Now() {
+				return android.os.SystemClock.elapsedRealtime();
+			}
+			public void Schedule(Runnable task, long delayMillis) {
+				handler.postDelayed(task, delayMillis);
+			}
+		}, new Random());
+		pool.tag = tag;
+		pool.SetSize(poolSize);
 	}
-	
-	// the runner
-	public void run(){
+
+	// InterstitialPool.Loader and Show, all called on the UI thread
+	public InterstitialAd Create(){
 		Activity activity = BBAndroidGame.AndroidGame().GetActivity();
-		interstitialAd = new InterstitialAd( activity );
-		interstitialAd.setAdUnitId(adUnitId);
-		
-		// set listener so we load a new ad when the user closes one
-		interstitialAd.setAdListener(new AdListener() {
+		final InterstitialAd ad = new InterstitialAd( activity );
+		ad.setAdUnitId(adUnitId);
+		final InterstitialPool<InterstitialAd> owner = pool;
+		ad.setAdListener(new AdListener() {
 		
 			public void onAdFailedToLoad(int errorCode) {
+				owner.Failed(ad);
 			}			
 			
 			public void onAdClosed() {
-				loadAd();
+				owner.Closed(ad);
 			}
 			
 			public void onAdLeftApplication() {
 			}
 			
 			public void onAdLoaded() {
+				owner.Loaded(ad);
 			}
 			
 			public void onAdOpened() {
 			}
 
 		});
-		
-		// load the first ad
-		loadAd();
+		return ad;
+	}
+
+	public void Load(InterstitialAd ad){
+		AdRequest adRequest = null;
+		if (testDeviceId.length()>0) {
+			adRequest = new AdRequest.Builder().addTestDevice(testDeviceId).build();
+		} else {
+			adRequest = new AdRequest.Builder().build();
+		}
+		ad.loadAd(adRequest);
+	}
+
+	public void Show(InterstitialAd ad){
+		// the pool retires ads before they get this old, but treat one that has expired anyway as closed so it's reloaded
+		if (ad.isLoaded()) {
+			ad.show();
+		} else {
+			pool.Closed(ad);
+		}
+	}
+}
+
+// keeps a number of ads loading or loaded, retrying failed loads after an exponential backoff with jitter.
+// knows nothing about AdMob: the Loader builds and loads ads, the caller shows them, and both report back through Loaded,
+// Failed and Closed, and the Scheduler supplies the clock and delays, so either can be faked
+class InterstitialPool<T> {
+
+	interface Loader<T> {
+		T Create();
+		void Load(T ad);
+	}
+
+	interface Scheduler {
+		long Now();
+		void Schedule(Runnable task, long delayMillis);
+	}
+
+	static final int EMPTY = 0;
+	static final int LOADING = 1;
+	static final int READY = 2;
+	static final int SHOWING = 3;
+	static final int WAITING = 4;      // backing off after a failed load
+
+	// retry delays double from BACKOFF_BASE up to BACKOFF_MAX, and each is randomly cut by up to half
+	static final long BACKOFF_BASE = 2000;
+	static final long BACKOFF_MAX = 5 * 60 * 1000;
+
+	// AdMob ads expire an hour after loading; older ones aren't offered, and are reloaded instead
+	static final long MAX_AGE = 55 * 60 * 1000;
+
+	class Slot implements Runnable {
+		T ad;
+		int state = EMPTY;
+		int failures;
+		long requested;
+		long loaded;
+
+		// the end of a backoff
+		public void run() {
+			synchronized (InterstitialPool.this) {
+				if (state == WAITING && !stopped && slots.indexOf(this) < size)
+					Request(this);
+			}
+		}
+	}
+
+	final Loader<T> loader;
+	final Scheduler scheduler;
+	final Random random;
+	final ArrayList<Slot> slots = new ArrayList<Slot>();
+	Object tag;
+	int size;
+	boolean stopped;
+
+	int requests;
+	int fills;
+	int failures;
+	long fillMillis;
+	int hits;
+	int misses;
+
+	InterstitialPool(Loader<T> loader, Scheduler scheduler, Random random) {
+		this.loader = loader;
+		this.scheduler = scheduler;
+		this.random = random;
+	}
+
+	// grows straight away; when shrinking, the extra slots are shown or fail as usual and then left empty
+	synchronized void SetSize(int size) {
+		this.size = size;
+		while (slots.size() < size)
+			slots.add(new Slot());
+		for (int i = 0; i < size; i++) {
+			if (slots.get(i).state == EMPTY)
+				Request(slots.get(i));
+		}
+	}
+
+	synchronized void Stop() {
+		stopped = true;
+	}
+
+	synchronized int ReadyCount() {
+		Expire();
+		int count = 0;
+		for (int i = 0; i < slots.size(); i++) {
+			if (slots.get(i).state == READY)
+				count++;
+		}
+		return count;
+	}
+
+	// claims the ad that has been ready longest for showing, or returns null if none is
+	synchronized T Take() {
+		Expire();
+		Slot best = null;
+		for (int i = 0; i < slots.size(); i++) {
+			Slot slot = slots.get(i);
+			if (slot.state == READY && (best == null || slot.requested < best.requested))
+				best = slot;
+		}
+		if (best == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		best.state = SHOWING;
+		return best.ad;
+	}
+
+	synchronized void Loaded(T ad) {
+		Slot slot = Find(ad);
+		if (slot == null || slot.state != LOADING)
+			return;
+		slot.state = READY;
+		slot.failures = 0;
+		slot.loaded = scheduler.Now();
+		fills++;
+		fillMillis += slot.loaded - slot.requested;
+	}
+
+	synchronized void Failed(T ad) {
+		Slot slot = Find(ad);
+		if (slot == null || slot.state != LOADING)
+			return;
+		slot.failures++;
+		failures++;
+		slot.state = WAITING;
+		scheduler.Schedule(slot, Backoff(slot.failures));
+	}
+
+	// the ad was shown and dismissed, or expired; load another in its place
+	synchronized void Closed(T ad) {
+		Slot slot = Find(ad);
+		if (slot == null)
+			return;
+		slot.state = EMPTY;
+		if (slots.indexOf(slot) < size)
+			Request(slot);
+	}
+
+	synchronized float HitRate() {
+		return hits + misses == 0 ? 0 : (float)hits / (hits + misses);
+	}
+
+	synchronized int AverageFillMillis() {
+		return fills == 0 ? 0 : (int)(fillMillis / fills);
+	}
+
+	synchronized int Failures() {
+		return failures;
+	}
+
+	// ready ads past MAX_AGE are reloaded; through the scheduler, since loading has to happen on the loader's thread
+	void Expire() {
+		long now = scheduler.Now();
+		for (int i = 0; i < slots.size(); i++) {
+			Slot slot = slots.get(i);
+			if (slot.state == READY && now - slot.loaded >= MAX_AGE)  {
+				slot.state = WAITING;
+				scheduler.Schedule(slot, 0);
+			}
+		}
+	}
+
+	long Backoff(int failures) {
+		long delay = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(failures - 1, 16));
+		return delay / 2 + (long)(random.nextDouble() * (delay / 2));
+	}
+
+	void Request(Slot slot) {
+		if (stopped)
+			return;
+		if (slot.ad == null)
+			slot.ad = loader.Create();
+		slot.state = LOADING;
+		slot.requested = scheduler.Now();
+		requests++;
+		loader.Load(slot.ad);
+	}
+
+	Slot Find(T ad) {
+		for (int i = 0; i < slots.size(); i++) {
+			if (slots.get(i).ad == ad)
+				return slots.get(i);
+		}
+		return null;
 	}
 }
@@ -21,17 +21,48 @@ class diddy
 	public static LocationManager myManager;
 	public static String latitude = "";
 	public static String longitude = "";
-	public static boolean gpsStarted = false;
+	public static volatile boolean gpsStarted = false;  // written on the UI thread, read on the game thread
+	
+	// location fixes are kept as doubles in a small ring, newest at gpsHead; the strings above are only
+	// formatted when getLatitude/getLongitude ask for a fix they haven't seen
+	static final int GPS_HISTORY = 16;
+	static final Object gpsLock = new Object();
+	static final double[] gpsLatitudes = new double[GPS_HISTORY];
+	static final double[] gpsLongitudes = new double[GPS_HISTORY];
+	static final float[] gpsAccuracies = new float[GPS_HISTORY];
+	static final long[] gpsTimes = new long[GPS_HISTORY];      // SystemClock.elapsedRealtime of each fix
+	static int gpsHead = -1;
+	static int gpsFixes;
+	static int gpsFormatted;
+	static int gpsMinMillis = 0;
+	static float gpsMinMeters = 0;
+	static LocationListener gpsListener;
+	static final float[] gpsDistance = new float[1];
 	public static AlertDialog.Builder alert;
 	public static EditText input;
 	public static String inputString = "";
 	
+	// strings built by buildString, direct-mapped by hash so repeated tokens share one instance;
+	// a colliding string just replaces the slot, which keeps the cache bounded without any bookkeeping
+	static String[] stringCache = new String[1024];
+	static final ThreadLocal<char[]> stringChars = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[256];
+		}
+	};
+	
 	static int systemMillisecs()
 	{
 		int ms = (int)System.currentTimeMillis();
 		return ms;
 	}
 
+	// monotonic, from System.nanoTime; wraps, so only differences are meaningful (up to ~35 minutes apart)
+	static int systemMicrosecs()
+	{
+		return (int)(System.nanoTime() / 1000);
+	}
+
 	static void setGraphics(int w, int h)
 	{
 	}
@@ -55,9 +86,10 @@ class diddy
 			public void onClick(DialogInterface dialog, int whichButton) {}
 		});
 	
-		BBAndroidGame._androidGame._activity.runOnUiThread(new Runnable() {
+		final AlertDialog.Builder dialog = alert;
+		DiddyUiDispatcher.post(new Runnable() {
 			public void run() {
-				alert.show();
+				dialog.show();
 			}
 		});
 	}
@@ -82,9 +114,10 @@ class diddy
 			}
 		});
 		
-		BBAndroidGame._androidGame._activity.runOnUiThread(new Runnable() {
+		final AlertDialog.Builder dialog = alert;
+		DiddyUiDispatcher.post(new Runnable() {
 			public void run() {
-				alert.show();
+				dialog.show();
 			}
 		});
 	}
@@ -113,11 +146,63 @@ class diddy
 	static String buildString(int[] arr, int offset, int length) {
 		if(offset<0 || length<=0 || offset+length > arr.length)
 			return "";
-		StringBuilder sb = new StringBuilder(length);
+		String[] cache = stringCache;
+		if(cache == null)
+			return copyString(arr, offset, length);
+		
+		// same hash as String.hashCode, so it's computed once here instead of again by a HashMap
+		int h = 0;
 		for(int i=offset;i<offset+length;i++) {
-			sb.append((char)arr[i]);
+			h = 31*h + (char)arr[i];
+		}
+		int slot = (h ^ (h >>> 16)) & (cache.length-1);
+		String s = cache[slot];
+		if(s != null && s.length() == length && s.hashCode() == h && sameChars(s, arr, offset))
+			return s;
+		s = copyString(arr, offset, length);
+		cache[slot] = s;
+		return s;
+	}
+	
+	static boolean sameChars(String s, int[] arr, int offset) {
+		for(int i=0;i<s.length();i++) {
+			if(s.charAt(i) != (char)arr[offset+i])
+				return false;
 		}
-		return sb.toString().intern();
+		return true;
+	}
+	
+	// narrow the slice into a reused char buffer (one per thread) and build the string from that in one go
+	static String copyString(int[] arr, int offset, int length) {
+		char[] chars = stringChars.get();
+		if(chars.length < length) {
+			chars = new char[Math.max(length, chars.length*2)];
+			stringChars.set(chars);
+		}
+		for(int i=0;i<length;i++) chars[i] = (char)arr[offset+i];
+		return new String(chars, 0, length);
+	}
+	
+	// size is rounded up to a power of two; 0 turns the cache off
+	static void setStringCacheSize(int size) {
+		if(size <= 0) {
+			stringCache = null;
+			return;
+		}
+		int n = 1;
+		while(n < size) n <<= 1;
+		stringCache = new String[n];
+	}
+	
+	static int getStringCacheSize() {
+		String[] cache = stringCache;
+		return cache == null ? 0 : cache.length;
+	}
+	
+	static void clearStringCache() {
+		String[] cache = stringCache;
+		if(cache != null)
+			java.util.Arrays.fill(cache, null);
 	}
 	
 	public static void startVibrate(int millisec)
@@ -141,45 +226,170 @@ class diddy
 		}
 	}
 	
+	// does nothing once the GPS is running; use setGpsRate to change how often it reports
 	static void startGps()
 	{
+		if (gpsStarted)
+			return;
 		try {
 			myManager = (LocationManager)BBAndroidGame._androidGame._activity.getSystemService(Context.LOCATION_SERVICE);
 
-			final LocationListener locationListener = new LocationListener() {
-
-				public void onLocationChanged(Location location) {
-					latitude = String.format("%.6f", location.getLatitude());
-					longitude = String.format("%.6f", location.getLongitude());
-				}
-				public void onStatusChanged(String provider, int status, Bundle extras) {}
-				public void onProviderEnabled(String provider) {}
-				public void onProviderDisabled(String provider) {}
-			};
-
-			BBAndroidGame._androidGame._activity.runOnUiThread(new Runnable() {
-				public void run() {
-					try {
-						if (!gpsStarted) {
-							myManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, locationListener); 
-							gpsStarted = true;
-						}
-					}catch (java.lang.SecurityException e) {
-						android.util.Log.e("[Monkey]", "SecurityException: " + android.util.Log.getStackTraceString(e));
+			if (gpsListener == null) {
+				gpsListener = new LocationListener() {
+	
+					public void onLocationChanged(Location location) {
+						addGpsFix(location);
 					}
-				}
-			});
+					public void onStatusChanged(String provider, int status, Bundle extras) {}
+					public void onProviderEnabled(String provider) {}
+					public void onProviderDisabled(String provider) {}
+				};
+			}
+			requestGpsUpdates(false);
 		} catch (java.lang.SecurityException e) {
 			android.util.Log.e("[Monkey]", "SecurityException: " + android.util.Log.getStackTraceString(e));
 		}
 	}
+	
+	// register the listener with the current rate, or re-register it if restart is set; the provider won't wake up
+	// for fixes sooner or nearer than that
+	static void requestGpsUpdates(final boolean restart)
+	{
+		// keyed, so only the latest of several rate changes in a frame is applied
+		DiddyUiDispatcher.post("gps", new Runnable() {
+			public void run() {
+				try {
+					if (gpsStarted) {
+						if (!restart)
+							return;
+						myManager.removeUpdates(gpsListener);
+					}
+					// the rate is read here, so a setGpsRate before the GPS has started still applies
+					myManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, gpsMinMillis, gpsMinMeters, gpsListener); 
+					gpsStarted = true;
+				}catch (java.lang.SecurityException e) {
+					android.util.Log.e("[Monkey]", "SecurityException: " + android.util.Log.getStackTraceString(e));
+				}
+			}
+		});
+	}
+	
+	static void addGpsFix(Location location)
+	{
+		synchronized (gpsLock) {
+			// some providers ignore the rate hints, so a fix is only kept if it's both late and far enough from the last
+			if (gpsHead >= 0) {
+				long elapsed = android.os.SystemClock.elapsedRealtime() - gpsTimes[gpsHead];
+				Location.distanceBetween(gpsLatitudes[gpsHead], gpsLongitudes[gpsHead], location.getLatitude(), location.getLongitude(), gpsDistance);
+				if (elapsed < gpsMinMillis || gpsDistance[0] < gpsMinMeters)
+					return;
+			}
+			gpsHead = (gpsHead + 1) % GPS_HISTORY;
+			gpsLatitudes[gpsHead] = location.getLatitude();
+			gpsLongitudes[gpsHead] = location.getLongitude();
+			gpsAccuracies[gpsHead] = location.hasAccuracy() ? location.getAccuracy() : -1;
+			gpsTimes[gpsHead] = android.os.SystemClock.elapsedRealtime();
+			gpsFixes++;
+		}
+	}
+	
+	// minimum time and distance between fixes; takes effect straight away if the GPS is running
+	static void setGpsRate(int minMillis, float minMeters)
+	{
+		gpsMinMillis = Math.max(0, minMillis);
+		gpsMinMeters = Math.max(0, minMeters);
+		if (gpsStarted)
+			requestGpsUpdates(true);
+	}
+	
+	// increases with every fix, so callers can tell when there's a new one
+	static int getGpsFixCount()
+	{
+		synchronized (gpsLock) {
+			return gpsFixes;
+		}
+	}
+	
+	static int getGpsHistoryCount()
+	{
+		synchronized (gpsLock) {
+			return Math.min(gpsFixes, GPS_HISTORY);
+		}
+	}
+	
+	// index 0 is the newest fix; returns -1 if there is no such fix
+	static int gpsSlot(int index)
+	{
+		if (index < 0 || index >= Math.min(gpsFixes, GPS_HISTORY))
+			return -1;
+		return (gpsHead - index + GPS_HISTORY) % GPS_HISTORY;
+	}
+	
+	static double gpsCoordinate(double[] coordinates, int index)
+	{
+		synchronized (gpsLock) {
+			int slot = gpsSlot(index);
+			return slot < 0 ? 0 : coordinates[slot];
+		}
+	}
+	
+	static float getGpsLatitude(int index)
+	{
+		return (float)gpsCoordinate(gpsLatitudes, index);
+	}
+	
+	static float getGpsLongitude(int index)
+	{
+		return (float)gpsCoordinate(gpsLongitudes, index);
+	}
+	
+	// millionths of a degree, which an int holds exactly where a float would round to a couple of metres
+	static int getGpsLatitudeE6(int index)
+	{
+		return (int)Math.round(gpsCoordinate(gpsLatitudes, index) * 1e6);
+	}
+	
+	static int getGpsLongitudeE6(int index)
+	{
+		return (int)Math.round(gpsCoordinate(gpsLongitudes, index) * 1e6);
+	}
+	
+	// metres; -1 if unknown
+	static float getGpsAccuracy(int index)
+	{
+		synchronized (gpsLock) {
+			int slot = gpsSlot(index);
+			return slot < 0 ? -1 : gpsAccuracies[slot];
+		}
+	}
+	
+	// milliseconds since the fix arrived; -1 if there is no such fix
+	static int getGpsAge(int index)
+	{
+		synchronized (gpsLock) {
+			int slot = gpsSlot(index);
+			return slot < 0 ? -1 : (int)(android.os.SystemClock.elapsedRealtime() - gpsTimes[slot]);
+		}
+	}
 	static String getLatitude() {
+		formatGps();
 		return latitude;
 	}
 	static String getLongitude() {
+		formatGps();
 		return longitude;
 	}
 	
+	static void formatGps() {
+		synchronized (gpsLock) {
+			if (gpsFormatted == gpsFixes)
+				return;
+			gpsFormatted = gpsFixes;
+			latitude = String.format("%.6f", gpsLatitudes[gpsHead]);
+			longitude = String.format("%.6f", gpsLongitudes[gpsHead]);
+		}
+	}
+	
 	// empty function
 	static void mouseZInit()
 	{
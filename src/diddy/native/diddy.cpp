@@ -22,6 +22,13 @@ class diddy
 		return 0;
 	}
 	
+	static int systemMicrosecs() {
+		LARGE_INTEGER freq, now;
+		QueryPerformanceFrequency(&freq);
+		QueryPerformanceCounter(&now);
+		return (int)(now.QuadPart / freq.QuadPart * 1000000 + now.QuadPart % freq.QuadPart * 1000000 / freq.QuadPart);
+	}
+	
 	static void setGraphics(int w, int h)
 	{
 	}
@@ -16,6 +16,12 @@ class diddy
 		return (new Date).getTime();
 	}
 
+	// getTimer is monotonic but only has millisecond resolution
+	static public function systemMicrosecs():int
+	{
+		return flash.utils.getTimer() * 1000;
+	}
+
 	static public function setGraphics(w:int, h:int):void
 	{
 	}
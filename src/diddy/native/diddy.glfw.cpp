@@ -124,6 +124,11 @@ public:
 		return seconds * 1000;
 	}
 	
+	// monotonic; wraps, so only differences are meaningful
+	static int systemMicrosecs() {
+		return (int)(long long)(glfwGetTime() * 1000000.0);
+	}
+	
 	static void setGraphics(int w, int h)
 	{
 #ifdef _glfw3_h_
@@ -27,6 +27,12 @@ diddy.systemMillisecs=function(){
 	return new Date().getTime();
 };
 
+// monotonic where performance.now exists; wraps at 32 bits like the native targets
+diddy.systemMicrosecs=function(){
+	if (window.performance && window.performance.now) return (window.performance.now() * 1000) | 0;
+	return (new Date().getTime() * 1000) | 0;
+};
+
 diddy.setGraphics=function(w, h)
 {
 	var canvas=document.getElementById( "GameCanvas" );
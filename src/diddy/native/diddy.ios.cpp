@@ -20,6 +20,11 @@ class diddy
 		seconds = time (NULL);
 		return seconds * 1000;
 	}
+	
+	// monotonic; wraps, so only differences are meaningful
+	static int systemMicrosecs() {
+		return (int)(long long)([[NSProcessInfo processInfo] systemUptime] * 1000000.0);
+	}
 
 	static void setGraphics(int w, int h)
 	{
@@ -37,6 +37,14 @@ class diddy
 		return seconds * 1000;
 	}
 	
+	// monotonic; wraps, so only differences are meaningful
+	static int systemMicrosecs() {
+		LARGE_INTEGER freq, now;
+		QueryPerformanceFrequency(&freq);
+		QueryPerformanceCounter(&now);
+		return (int)(now.QuadPart / freq.QuadPart * 1000000 + now.QuadPart % freq.QuadPart * 1000000 / freq.QuadPart);
+	}
+	
 	static void setGraphics(int w, int h)
 	{
 	}
@@ -33,6 +33,14 @@ class diddy
 		return millisecs;
 	}
 
+	// monotonic; wraps, so only differences are meaningful
+	public static int systemMicrosecs()
+	{
+		long ticks = System.Diagnostics.Stopwatch.GetTimestamp();
+		long freq = System.Diagnostics.Stopwatch.Frequency;
+		return unchecked((int)(ticks / freq * 1000000 + ticks % freq * 1000000 / freq));
+	}
+
 	public static void setGraphics(int w, int h)
 	{
 	}
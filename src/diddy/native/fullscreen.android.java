@@ -43,7 +43,7 @@ class NativeFullScreen extends ActivityDelegate {
 			return;
 		}
         BBAndroidGame.AndroidGame().AddActivityDelegate(this);
-        BBAndroidGame.AndroidGame().GetActivity().runOnUiThread(new Runnable() {
+        DiddyUiDispatcher.post(new Runnable() {
             public void run() {
                 mHandler = new Handler();
                 View decorView = BBAndroidGame.AndroidGame().GetActivity().getWindow().getDecorView();
@@ -66,45 +66,48 @@ class NativeFullScreen extends ActivityDelegate {
         });
     }
     
+    // both share one key, so toggling several times before the UI thread catches up only applies the last
     public void EnableFullScreenMode() {
         isFullScreen = true;
-        BBAndroidGame.AndroidGame().GetActivity().runOnUiThread(new Runnable() {
-            public void run() {
-                if (Build.VERSION.SDK_INT < 11) {
-                    return;
-                }
-                int newUiOptions = View.STATUS_BAR_HIDDEN;
-        
-                // Navigation bar hiding:  Backwards compatible to ICS.
-                if (Build.VERSION.SDK_INT >= 14) {
-                    newUiOptions |= View.SYSTEM_UI_FLAG_LOW_PROFILE;
-                    newUiOptions |= View.SYSTEM_UI_FLAG_HIDE_NAVIGATION;
-                }
-                
-                // Status bar hiding: Backwards compatible to Jellybean
-                if (Build.VERSION.SDK_INT >= 16) {
-                    newUiOptions |= View.SYSTEM_UI_FLAG_FULLSCREEN;
-                    newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_STABLE;
-                    newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION;
-                    newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN;
-                }
-        
-                // Immersive mode: Backward compatible to KitKat.
-                // Note that this flag doesn't do anything by itself, it only augments the behavior
-                // of HIDE_NAVIGATION and FLAG_FULLSCREEN.  For the purposes of this sample
-                // all three flags are being toggled together.
-                // Note that there are two immersive mode UI flags, one of which is referred to as "sticky".
-                // Sticky immersive mode differs in that it makes the navigation and status bars
-                // semi-transparent, and the UI flag does not get cleared when the user interacts with
-                // the screen.
-                if (Build.VERSION.SDK_INT >= 19) {
-                    newUiOptions |= View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY;
-                }
-                
-                BBAndroidGame.AndroidGame().GetActivity().getWindow().getDecorView().setSystemUiVisibility(newUiOptions);        
-            }
-        });
+        DiddyUiDispatcher.post("fullscreen", mEnable);
     }
+
+    final Runnable mEnable = new Runnable() {
+        public void run() {
+            if (Build.VERSION.SDK_INT < 11) {
+                return;
+            }
+            int newUiOptions = View.STATUS_BAR_HIDDEN;
+    
+            // Navigation bar hiding:  Backwards compatible to ICS.
+            if (Build.VERSION.SDK_INT >= 14) {
+                newUiOptions |= View.SYSTEM_UI_FLAG_LOW_PROFILE;
+                newUiOptions |= View.SYSTEM_UI_FLAG_HIDE_NAVIGATION;
+            }
+            
+            // Status bar hiding: Backwards compatible to Jellybean
+            if (Build.VERSION.SDK_INT >= 16) {
+                newUiOptions |= View.SYSTEM_UI_FLAG_FULLSCREEN;
+                newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_STABLE;
+                newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION;
+                newUiOptions |= View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN;
+            }
+    
+            // Immersive mode: Backward compatible to KitKat.
+            // Note that this flag doesn't do anything by itself, it only augments the behavior
+            // of HIDE_NAVIGATION and FLAG_FULLSCREEN.  For the purposes of this sample
+            // all three flags are being toggled together.
+            // Note that there are two immersive mode UI flags, one of which is referred to as "sticky".
+            // Sticky immersive mode differs in that it makes the navigation and status bars
+            // semi-transparent, and the UI flag does not get cleared when the user interacts with
+            // the screen.
+            if (Build.VERSION.SDK_INT >= 19) {
+                newUiOptions |= View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY;
+            }
+            
+            BBAndroidGame.AndroidGame().GetActivity().getWindow().getDecorView().setSystemUiVisibility(newUiOptions);        
+        }
+    };
     
     public boolean IsFullScreen() {
         return isFullScreen;
@@ -112,13 +115,15 @@ class NativeFullScreen extends ActivityDelegate {
     
     public void DisableFullScreenMode() {
         isFullScreen = false;
-        BBAndroidGame.AndroidGame().GetActivity().runOnUiThread(new Runnable() {
-            public void run() {
-                BBAndroidGame.AndroidGame().GetActivity().getWindow().getDecorView().setSystemUiVisibility(0);
-            }
-        });
+        DiddyUiDispatcher.post("fullscreen", mDisable);
     }
 
+    final Runnable mDisable = new Runnable() {
+        public void run() {
+            BBAndroidGame.AndroidGame().GetActivity().getWindow().getDecorView().setSystemUiVisibility(0);
+        }
+    };
+
     public void onResume() {
         if (isFullScreen) {
             EnableFullScreenMode();
@@ -6,6 +6,11 @@ import android.os.MessageQueue.IdleHandler;
 import android.provider.MediaStore;
 import android.app.Fragment;
 import android.net.ConnectivityManager;
+import android.content.SharedPreferences;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 import com.google.android.gms.games.achievement.*
 
@@ -27,16 +32,44 @@ import com.google.android.gms.games.achievement.*
 
 class BBGameService extends ActivityDelegate {
 	Activity activity;
-	GameHelper mHelper;
+	volatile GameHelper mHelper;
 	BBGameService parent;
 	GameHelper.GameHelperListener listener;
 
 	boolean running;
 
+	// when the GameHelper is built: in the constructor, once the app has started and gone idle, or on first use
+	static final int INIT_EAGER = 0;
+	static final int INIT_AFTER_START = 1;
+	static final int INIT_ON_DEMAND = 2;
+	static int initMode = INIT_EAGER;
+	static int initClients = GameHelper.CLIENT_GAMES;
+
+	boolean initStarted;
+	boolean signInRequested;
+	// main thread only: the game runs while the activity is started, so it starts out true
+	boolean activityStarted = true;
+	boolean helperStarted;
+	int maxSignIns = 0;
+
 	int result = -1;
 	int REQUEST_LEADERBOARD = 9101;
 	int REQUEST_ACHIEVEMENTS = 9102;
 
+	// calls wait here until signed in, and are sent a short while after the first of a burst
+	static final int FLUSH_DELAY = 2000;
+	GameServiceQueue queue;
+	Handler handler;
+	boolean flushScheduled;
+	Runnable flusher = new Runnable() {
+		public void run() {
+			synchronized (BBGameService.this) {
+				flushScheduled = false;
+			}
+			queue.Flush();
+		}
+	};
+
 	class GameServiceThread extends Thread{
 
 		GameServiceThread(){
@@ -45,6 +78,7 @@ class BBGameService extends ActivityDelegate {
 
 		public void run(){
 
+			long start = System.nanoTime();
 			Looper.prepare();
 
 			MessageQueue queue = Looper.myQueue();
@@ -61,10 +95,35 @@ class BBGameService extends ActivityDelegate {
 				}
             });
 
-			mHelper = new GameHelper(activity, GameHelper.CLIENT_ALL);
-			mHelper.setPlusApiOptions(new Plus.PlusOptions.Builder().build());
-    		mHelper.setup(parent.listener);
-			mHelper.setMaxAutoSignInAttempts(0);
+			GameHelper helper = new GameHelper(activity, initClients);
+			if ((initClients & GameHelper.CLIENT_PLUS) != 0)
+				helper.setPlusApiOptions(new Plus.PlusOptions.Builder().build());
+    		helper.setup(parent.listener);
+			helper.setMaxAutoSignInAttempts(maxSignIns);
+			boolean signIn;
+			synchronized (BBGameService.this) {
+				mHelper = helper;
+				signIn = signInRequested;
+				signInRequested = false;
+			}
+			android.util.Log.i("[Monkey]", "GameService: clients " + initClients + " set up in " + (System.nanoTime() - start) / 1000 + "us");
+
+			// the activity's onStart has usually been and gone by now, so start the helper the same way,
+			// which silently connects a player who signed in on an earlier run
+			handler.post(new Runnable() {
+				public void run() {
+					StartHelper();
+				}
+			});
+
+			// a sign in asked for while the helper was being built
+			if (signIn) {
+				handler.post(new Runnable() {
+					public void run() {
+						BeginUserSignIn();
+					}
+				});
+			}
 
 			Looper.loop();
 		}
@@ -73,19 +132,57 @@ class BBGameService extends ActivityDelegate {
 	@Override
     public void onStart() {
         super.onStart();
-		mHelper.onStart(activity);
+		activityStarted = true;
+		StartHelper();
     }
 
     @Override
     public void onStop() {
         super.onStop();
-		mHelper.onStop();
+		activityStarted = false;
+		if (mHelper != null && helperStarted) mHelper.onStop();
+		helperStarted = false;
     }
 
+	// on the main thread, once the helper is built and the activity is started
+	void StartHelper() {
+		if (mHelper == null || !activityStarted || helperStarted)
+			return;
+		helperStarted = true;
+		mHelper.onStart(activity);
+	}
+
 	@Override	
 	public void onActivityResult( int requestCode,int resultCode,Intent data ){
 		super.onActivityResult(requestCode, resultCode, data);
-		mHelper.onActivityResult(requestCode, resultCode, data);
+		if (mHelper != null) mHelper.onActivityResult(requestCode, resultCode, data);
+	}
+
+	// must be called before the GameService is created
+	public static void SetInitMode(int mode) {
+		initMode = mode;
+	}
+
+	// the GameHelper.CLIENT_* flags to build, CLIENT_GAMES by default; must be called before the GameService is created
+	public static void SetClients(int clients) {
+		initClients = clients;
+	}
+
+	// starts building the GameHelper on its own thread, if it isn't already
+	synchronized void Init() {
+		if (initStarted)
+			return;
+		initStarted = true;
+		GameServiceThread thread=new GameServiceThread();
+		running=true;
+		thread.start();
+	}
+
+	// the GameHelper, or null while it's still being built
+	GameHelper Helper() {
+		if (mHelper == null)
+			Init();
+		return mHelper;
 	}
 	
 	public boolean IsNetworkAvailable() {
@@ -103,76 +200,312 @@ class BBGameService extends ActivityDelegate {
 
 		activity = BBAndroidGame.AndroidGame().GetActivity();
 		parent = this;
+		handler = new Handler(Looper.getMainLooper());
+		queue = new GameServiceQueue(new GameServiceQueue.Client() {
+			public boolean IsConnected() {
+				return mHelper != null && mHelper.isSignedIn();
+			}
+			public void SubmitScore(String id, long score) {
+				Games.Leaderboards.submitScore(mHelper.getApiClient(), id, score);
+			}
+			public void Unlock(String id) {
+				Games.Achievements.unlock(mHelper.getApiClient(), id);
+			}
+			public void Reveal(String id) {
+				Games.Achievements.reveal(mHelper.getApiClient(), id);
+			}
+			public void Increment(String id, int steps) {
+				Games.Achievements.increment(mHelper.getApiClient(), id, steps);
+			}
+		}, activity.getSharedPreferences(GameServiceQueue.PREFS, Context.MODE_PRIVATE));
 
 		listener = new GameHelper.GameHelperListener() {
 	       @Override
 		    public void onSignInSucceeded() {
+				queue.Flush();
 		    }
 			@Override
 			public void onSignInFailed() {
 			}
 	    };
 
-		GameServiceThread thread=new GameServiceThread();
-		running=true;
-		thread.start();
+		long start = System.nanoTime();
+		if (initMode == INIT_EAGER) {
+			Init();
+		} else if (initMode == INIT_AFTER_START) {
+			handler.post(new Runnable() {
+				public void run() {
+					Looper.myQueue().addIdleHandler(new IdleHandler() {
+						public boolean queueIdle() {
+							Init();
+							return false;
+						}
+					});
+				}
+			});
+		}
 
 		BBAndroidGame.AndroidGame().AddActivityDelegate( this );
+		android.util.Log.i("[Monkey]", "GameService: created in " + (System.nanoTime() - start) / 1000 + "us, init mode " + initMode);
 
 	}
 
 	public void SubmitHighscore(String id, int points) {
-		Games.Leaderboards.submitScore(mHelper.getApiClient(), id, points);
+		queue.SubmitScore(id, points);
+		Helper();
+		ScheduleFlush();
 	}
 
 	public void UnlockAchievement(String id) {
-		Games.Achievements.unlock(mHelper.getApiClient(), id);
+		queue.Unlock(id);
+		Helper();
+		ScheduleFlush();
 	}
 
 	public void RevealAchievement(String id) {
-		Games.Achievements.reveal(mHelper.getApiClient(), id);
+		queue.Reveal(id);
+		Helper();
+		ScheduleFlush();
 	}
 
 	public void IncrementAchievement(String id, int step) {
-		Games.Achievements.increment(mHelper.getApiClient(), id, step);
+		queue.Increment(id, step);
+		Helper();
+		ScheduleFlush();
+	}
+
+	// send everything queued now, if signed in
+	public void FlushQueue() {
+		queue.Flush();
+	}
+
+	public int QueuedCount() {
+		return queue.Size();
+	}
+
+	synchronized void ScheduleFlush() {
+		if (flushScheduled || !queue.client.IsConnected())
+			return;
+		flushScheduled = true;
+		handler.postDelayed(flusher, FLUSH_DELAY);
 	}
 
 	public void ShowLeaderBoard(String id) {
-		activity.startActivityForResult(Games.Leaderboards.getLeaderboardIntent(mHelper.getApiClient(), id), REQUEST_LEADERBOARD);
+		GameHelper helper = Helper();
+		if (helper == null) return;
+		activity.startActivityForResult(Games.Leaderboards.getLeaderboardIntent(helper.getApiClient(), id), REQUEST_LEADERBOARD);
 	}
 	
 	public void ShowAllLeaderBoards() {
-		activity.startActivityForResult(Games.Leaderboards.getAllLeaderboardsIntent(mHelper.getApiClient()), REQUEST_LEADERBOARD);
+		GameHelper helper = Helper();
+		if (helper == null) return;
+		activity.startActivityForResult(Games.Leaderboards.getAllLeaderboardsIntent(helper.getApiClient()), REQUEST_LEADERBOARD);
 	}
 
 	public void ShowAchievements() {
-		activity.startActivityForResult(Games.Achievements.getAchievementsIntent(mHelper.getApiClient()), REQUEST_ACHIEVEMENTS);
+		GameHelper helper = Helper();
+		if (helper == null) return;
+		activity.startActivityForResult(Games.Achievements.getAchievementsIntent(helper.getApiClient()), REQUEST_ACHIEVEMENTS);
 	}
 
 	public boolean IsLoggedIn() {
-		return mHelper.isSignedIn();
+		return mHelper != null && mHelper.isSignedIn();
 	}
 
 	public void SignOut() {
-		mHelper.signOut();
+		if (mHelper != null) mHelper.signOut();
 	}
 
 	public void BeginUserSignIn() {
 		if(IsNetworkAvailable()) {
-			if (mHelper != null) {
-				if (mHelper.mGoogleApiClient != null) {
-					mHelper.beginUserInitiatedSignIn();
-				} else {
-					System.out.println("mHelper.mGoogleApiClient is NULL");
+			synchronized (this) {
+				if (mHelper == null) {
+					// picked up by GameServiceThread once the helper has been built
+					signInRequested = true;
+					Init();
+					return;
 				}
+			}
+			if (mHelper.mGoogleApiClient != null) {
+				mHelper.beginUserInitiatedSignIn();
 			} else {
-				System.out.println("mHelper is NULL");
+				System.out.println("mHelper.mGoogleApiClient is NULL");
 			}
 		}
 	}
 
 	public void SetMaxUserSignIns(int count) {
-		mHelper.setMaxAutoSignInAttempts(count);
+		maxSignIns = count;
+		if (mHelper != null) mHelper.setMaxAutoSignInAttempts(count);
+	}
+
+}
+
+// score and achievement calls, kept until they can be sent and saved so they survive the app closing.
+// repeated calls are merged: each distinct score once per leaderboard, one unlock or reveal per achievement,
+// and the sum of the increments; the Client is the only part that talks to Play Games, so a fake can stand in
+class GameServiceQueue {
+	static final String PREFS = "diddy_gameservice_queue";
+
+	interface Client {
+		boolean IsConnected();
+		void SubmitScore(String id, long score);
+		void Unlock(String id);
+		void Reveal(String id);
+		void Increment(String id, int steps);
+	}
+
+	final Client client;
+	final SharedPreferences prefs;                     // Null to keep the queue in memory only
+	// the server knows whether a leaderboard ranks higher or lower scores first, so none are dropped here
+	final LinkedHashMap<String,LinkedHashSet<Long>> scores = new LinkedHashMap<String,LinkedHashSet<Long>>();
+	int scoreCount;
+	final LinkedHashSet<String> unlocks = new LinkedHashSet<String>();
+	final LinkedHashSet<String> reveals = new LinkedHashSet<String>();
+	final LinkedHashMap<String,Integer> increments = new LinkedHashMap<String,Integer>();
+
+	GameServiceQueue(Client client, SharedPreferences prefs) {
+		this.client = client;
+		this.prefs = prefs;
+		Load();
+	}
+
+	synchronized void SubmitScore(String id, long score) {
+		if (!AddScore(id, score))
+			return;
+		Save();
 	}
 
+	boolean AddScore(String id, long score) {
+		LinkedHashSet<Long> pending = scores.get(id);
+		if (pending == null) {
+			pending = new LinkedHashSet<Long>();
+			scores.put(id, pending);
+		}
+		if (!pending.add(score))
+			return false;
+		scoreCount++;
+		return true;
+	}
+
+	// an unlock completes the achievement, so increments still waiting for it are dropped
+	synchronized void Unlock(String id) {
+		if (!unlocks.add(id))
+			return;
+		increments.remove(id);
+		Save();
+	}
+
+	synchronized void Reveal(String id) {
+		if (reveals.add(id))
+			Save();
+	}
+
+	synchronized void Increment(String id, int steps) {
+		if (steps <= 0 || unlocks.contains(id))
+			return;
+		Integer total = increments.get(id);
+		increments.put(id, total == null ? steps : total + steps);
+		Save();
+	}
+
+	synchronized int Size() {
+		return scoreCount + unlocks.size() + reveals.size() + increments.size();
+	}
+
+	// send everything queued, removing each call as it goes; if the client fails part way the rest stay queued
+	synchronized int Flush() {
+		if (Size() == 0 || !client.IsConnected())
+			return 0;
+		int sent = 0;
+		try {
+			for (Iterator<Map.Entry<String,LinkedHashSet<Long>>> it = scores.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String,LinkedHashSet<Long>> e = it.next();
+				for (Iterator<Long> s = e.getValue().iterator(); s.hasNext(); ) {
+					client.SubmitScore(e.getKey(), s.next());
+					s.remove();
+					scoreCount--;
+					sent++;
+				}
+				it.remove();
+			}
+			for (Iterator<String> it = reveals.iterator(); it.hasNext(); ) {
+				client.Reveal(it.next());
+				it.remove();
+				sent++;
+			}
+			for (Iterator<String> it = unlocks.iterator(); it.hasNext(); ) {
+				client.Unlock(it.next());
+				it.remove();
+				sent++;
+			}
+			for (Iterator<Map.Entry<String,Integer>> it = increments.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String,Integer> e = it.next();
+				client.Increment(e.getKey(), e.getValue());
+				it.remove();
+				sent++;
+			}
+		} catch (RuntimeException e) {
+			android.util.Log.w("[Monkey]", "GameService: flush stopped, " + Size() + " calls still queued: " + e);
+		}
+		if (sent > 0)
+			Save();
+		return sent;
+	}
+
+	// one entry per line, id and value separated by a tab
+	void Save() {
+		if (prefs == null)
+			return;
+		StringBuilder s = new StringBuilder();
+		for (Map.Entry<String,LinkedHashSet<Long>> e : scores.entrySet())
+			for (Long score : e.getValue())
+				s.append(e.getKey()).append('\t').append(score).append('\n');
+		StringBuilder i = new StringBuilder();
+		for (Map.Entry<String,Integer> e : increments.entrySet())
+			i.append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+		prefs.edit()
+			.putString("scores", s.toString())
+			.putString("increments", i.toString())
+			.putString("unlocks", Join(unlocks))
+			.putString("reveals", Join(reveals))
+			.apply();
+	}
+
+	void Load() {
+		if (prefs == null)
+			return;
+		try {
+			for (String line : Lines(prefs.getString("scores", ""))) {
+				int tab = line.indexOf('\t');
+				AddScore(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+			}
+			for (String line : Lines(prefs.getString("increments", ""))) {
+				int tab = line.indexOf('\t');
+				increments.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+			}
+			for (String line : Lines(prefs.getString("unlocks", "")))
+				unlocks.add(line);
+			for (String line : Lines(prefs.getString("reveals", "")))
+				reveals.add(line);
+		} catch (RuntimeException e) {
+			android.util.Log.w("[Monkey]", "GameService: discarding unreadable queue: " + e);
+			scores.clear();
+			scoreCount = 0;
+			increments.clear();
+			unlocks.clear();
+			reveals.clear();
+		}
+	}
+
+	static String Join(Iterable<String> ids) {
+		StringBuilder s = new StringBuilder();
+		for (String id : ids)
+			s.append(id).append('\n');
+		return s.toString();
+	}
+
+	static String[] Lines(String text) {
+		return text.length() == 0 ? new String[0] : text.split("\n");
+	}
 }
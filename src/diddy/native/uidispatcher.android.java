@@ -0,0 +1,105 @@
+/*
+Copyright (c) 2011 Steve Revill and Shane Woolcock
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+import java.util.ArrayList;
+
+// runs the native modules' commands on the UI thread. everything queued before the UI thread gets to the
+// queue goes over in one hop, and a command posted with a key replaces the one still waiting with that key,
+// so a run of idempotent calls (fullscreen on, off, on) only does the last
+class DiddyUiDispatcher implements Runnable
+{
+	static final DiddyUiDispatcher dispatcher = new DiddyUiDispatcher();
+
+	ArrayList<String> keys = new ArrayList<String>();         // null for commands that always run
+	ArrayList<Runnable> commands = new ArrayList<Runnable>();
+	ArrayList<String> runningKeys = new ArrayList<String>();
+	ArrayList<Runnable> running = new ArrayList<Runnable>();
+	android.os.Handler handler;
+	boolean posted;
+	int peakDepth;
+	int hops;
+
+	static void post(Runnable command)
+	{
+		dispatcher.add(null, command);
+	}
+
+	static void post(String key, Runnable command)
+	{
+		dispatcher.add(key, command);
+	}
+
+	// commands waiting for the UI thread
+	static int queueDepth()
+	{
+		synchronized (dispatcher) {
+			return dispatcher.commands.size();
+		}
+	}
+
+	// the most commands that have waited at once
+	static int peakQueueDepth()
+	{
+		synchronized (dispatcher) {
+			return dispatcher.peakDepth;
+		}
+	}
+
+	// how many times the queue has gone over to the UI thread
+	static int uiHops()
+	{
+		synchronized (dispatcher) {
+			return dispatcher.hops;
+		}
+	}
+
+	synchronized void add(String key, Runnable command)
+	{
+		if (key != null) {
+			int i = keys.indexOf(key);
+			if (i >= 0) {
+				keys.remove(i);
+				commands.remove(i);
+			}
+		}
+		keys.add(key);
+		commands.add(command);
+		if (commands.size() > peakDepth)
+			peakDepth = commands.size();
+		if (!posted) {
+			posted = true;
+			hops++;
+			// always a post, never runOnUiThread, so a command adding another can't run the queue inside itself
+			if (handler == null)
+				handler = new android.os.Handler(android.os.Looper.getMainLooper());
+			handler.post(this);
+		}
+	}
+
+	public void run()
+	{
+		// swap so commands posted while these run wait for the next hop
+		synchronized (this) {
+			ArrayList<String> k = keys;
+			keys = runningKeys;
+			runningKeys = k;
+			ArrayList<Runnable> c = commands;
+			commands = running;
+			running = c;
+			posted = false;
+		}
+		for (int i = 0; i < running.size(); i++) {
+			try {
+				running.get(i).run();
+			} catch (RuntimeException e) {
+				android.util.Log.e("[Monkey]", "UI command " + runningKeys.get(i) + " failed: " + android.util.Log.getStackTraceString(e));
+			}
+		}
+		running.clear();
+		runningKeys.clear();
+	}
+}
@@ -6,8 +6,42 @@ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLI
 */
 
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+// opt-in contention instrumentation; while disabled each operation costs one volatile read
+class ExtThreadingStats {
+	static final int HISTOGRAM_BUCKETS = 16;
+	static volatile boolean s_enabled;
+	
+	public static void SetEnabled(int enabled) {
+		s_enabled = enabled != 0;
+	}
+	
+	public static int Enabled() {
+		return s_enabled ? 1 : 0;
+	}
+	
+	// bucket 0 is under 1us, bucket n is [2^(n-1), 2^n) us, and the last bucket is open-ended
+	static void Record(int[] histogram, long nanos) {
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		histogram[bucket < HISTOGRAM_BUCKETS ? bucket : HISTOGRAM_BUCKETS - 1]++;
+	}
+	
+	static int Micros(long nanos) {
+		return (int)Math.min(Integer.MAX_VALUE, nanos / 1000);
+	}
+}
 
 abstract class ExtThread {
 	Thread m_thread;
@@ -15,16 +49,47 @@ abstract class ExtThread {
 	boolean m_started;
 	volatile boolean m_finished;
 	boolean m_cancelled;
+	boolean m_pooled;
+	boolean m_ran;
+	FutureTask<Object> m_task;
 	Object[] m_runningSemaphore = new Object[0];
+	long m_startedAt;
+	long m_runStartedAt;
+	long m_runFinishedAt;
+	
+	// shared worker pool for pooled threads, sized to the core count and created on first use
+	static ThreadPoolExecutor s_pool;
+	
+	static synchronized ThreadPoolExecutor GetPool() {
+		if(s_pool == null) {
+			int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+			s_pool = new ThreadPoolExecutor(cores, cores, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				int m_count;
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ExtThread-pool-" + (++m_count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			s_pool.allowCoreThreadTimeOut(true);
+		}
+		return s_pool;
+	}
 	
 	private class Runner implements Runnable {
 		public void run() {
-			m_cancelled = false;
+			// whichever of this and a pooled cancel gets here first decides whether the job runs
+			synchronized(m_runningSemaphore) {
+				if(m_cancelled) return;
+				m_ran = true;
+			}
+			if(m_startedAt != 0) m_runStartedAt = System.nanoTime();
 			try {
 				ExtRun();
 			} catch(RuntimeException e) {
 				m_cancelled = true;
 			}
+			if(m_runStartedAt != 0) m_runFinishedAt = System.nanoTime();
 			synchronized(m_runningSemaphore) {
 				m_finished = true;
 				m_runningSemaphore.notifyAll();
@@ -36,30 +101,79 @@ abstract class ExtThread {
 		if(m_cancelled || m_finished) return;
 		if (!m_started) {
 			m_started = true;
+			if(ExtThreadingStats.s_enabled) m_startedAt = System.nanoTime();
 			m_runner = new Runner();
-			m_thread = new Thread(m_runner);
-			m_thread.start();
+			if(m_pooled) {
+				m_task = new FutureTask<Object>(m_runner, null) {
+					protected void done() {
+						// a job cancelled before a worker picked it up never runs, so wake any joiners here.
+						// one already running is only interrupted, and the Runner signals when it ends as it
+						// does for an unpooled thread
+						if(isCancelled()) {
+							synchronized(m_runningSemaphore) {
+								if(m_ran) return;
+								m_cancelled = true;
+								m_runningSemaphore.notifyAll();
+							}
+						}
+					}
+				};
+				GetPool().execute(m_task);
+			} else {
+				m_thread = new Thread(m_runner);
+				m_thread.start();
+			}
 		}
 	}
 	
 	public void ExtCancel() {
 		if(!m_started || m_cancelled || m_finished) return;
+		if(m_pooled) {
+			m_task.cancel(true);
+			return;
+		}
 		try {
 			m_thread.interrupt();
 		} catch(SecurityException e) {
 		}
 	}
 	
+	public void ExtSetPooled(int pooled) {
+		if(m_started) return;
+		m_pooled = pooled != 0;
+	}
+	
+	public int ExtPooled() {
+		return m_pooled ? 1 : 0;
+	}
+	
 	public void ExtJoin() {
 		if(!m_started || m_cancelled || m_finished) return;
 		synchronized(m_runningSemaphore) {
 			while(!m_finished && !m_cancelled) {
 				try {
-					m_runningSemaphore.wait(100);
+					m_runningSemaphore.wait();
+				} catch(InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+	}
+	
+	public int ExtTimedJoin(int timeout) {
+		if(!m_started || m_cancelled || m_finished) return m_finished ? 1 : 0;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		synchronized(m_runningSemaphore) {
+			while(!m_finished && !m_cancelled) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if(remaining <= 0) break;
+				try {
+					m_runningSemaphore.wait(remaining);
 				} catch(InterruptedException e) {
 					throw new RuntimeException(e);
 				}
 			}
+			return m_finished ? 1 : 0;
 		}
 	}
 	
@@ -67,27 +181,184 @@ abstract class ExtThread {
 		return m_started && !m_finished && !m_cancelled ? 1 : 0;
 	}
 	
+	// time from Start until the job began running, in microseconds (-1 if not recorded)
+	public int ExtStartDelay() {
+		if(m_startedAt == 0 || m_runStartedAt == 0) return -1;
+		return ExtThreadingStats.Micros(m_runStartedAt - m_startedAt);
+	}
+	
+	// time the job spent running, in microseconds (-1 if not recorded or still running)
+	public int ExtRunTime() {
+		synchronized(m_runningSemaphore) {
+			if(!m_finished || m_runFinishedAt == 0) return -1;
+		}
+		return ExtThreadingStats.Micros(m_runFinishedAt - m_runStartedAt);
+	}
+	
 	public abstract void ExtRun();
 }
 
 class ExtMutex {
 	ReentrantLock m_lock = new ReentrantLock();
+	// stats are only written while holding m_lock
+	int m_acquisitions;
+	int m_contended;
+	long m_waitNanos;
+	long m_maxWaitNanos;
+	long m_holdNanos;
+	long m_maxHoldNanos;
+	int[] m_waitHistogram;
+	int[] m_holdHistogram;
+	long m_lockedAt;
 	
 	public void ExtLock() {
-		m_lock.lock();
+		if(!ExtThreadingStats.s_enabled) {
+			m_lock.lock();
+			return;
+		}
+		long wait = 0;
+		if(!m_lock.tryLock()) {
+			long start = System.nanoTime();
+			m_lock.lock();
+			wait = System.nanoTime() - start;
+			m_contended++;
+		}
+		RecordAcquire(wait);
 	}
 	
 	public void ExtUnlock() {
+		if(m_lockedAt != 0 && m_lock.getHoldCount() == 1) RecordRelease();
 		m_lock.unlock();
 	}
 	
 	public int ExtTryLock() {
-		return m_lock.tryLock()?1:0;
+		if(!m_lock.tryLock()) return 0;
+		if(ExtThreadingStats.s_enabled) RecordAcquire(0);
+		return 1;
+	}
+	
+	void RecordAcquire(long wait) {
+		if(m_waitHistogram == null) {
+			m_waitHistogram = new int[ExtThreadingStats.HISTOGRAM_BUCKETS];
+			m_holdHistogram = new int[ExtThreadingStats.HISTOGRAM_BUCKETS];
+		}
+		m_acquisitions++;
+		m_waitNanos += wait;
+		if(wait > m_maxWaitNanos) m_maxWaitNanos = wait;
+		ExtThreadingStats.Record(m_waitHistogram, wait);
+		// only the outermost acquisition of a reentrant lock starts the hold timer
+		if(m_lock.getHoldCount() == 1) m_lockedAt = System.nanoTime();
+	}
+	
+	void RecordRelease() {
+		long hold = System.nanoTime() - m_lockedAt;
+		m_lockedAt = 0;
+		m_holdNanos += hold;
+		if(hold > m_maxHoldNanos) m_maxHoldNanos = hold;
+		ExtThreadingStats.Record(m_holdHistogram, hold);
+	}
+	
+	// acquisitions, contended, total wait, max wait, total hold, max hold (times in us), then the wait and hold histograms
+	public void ExtStats(int[] out) {
+		out[0] = m_acquisitions;
+		out[1] = m_contended;
+		out[2] = ExtThreadingStats.Micros(m_waitNanos);
+		out[3] = ExtThreadingStats.Micros(m_maxWaitNanos);
+		out[4] = ExtThreadingStats.Micros(m_holdNanos);
+		out[5] = ExtThreadingStats.Micros(m_maxHoldNanos);
+		for(int i = 0; i < ExtThreadingStats.HISTOGRAM_BUCKETS; i++) {
+			out[6 + i] = m_waitHistogram != null ? m_waitHistogram[i] : 0;
+			out[6 + ExtThreadingStats.HISTOGRAM_BUCKETS + i] = m_holdHistogram != null ? m_holdHistogram[i] : 0;
+		}
+	}
+	
+	public void ExtResetStats() {
+		m_lock.lock();
+		try {
+			m_acquisitions = m_contended = 0;
+			m_waitNanos = m_maxWaitNanos = m_holdNanos = m_maxHoldNanos = 0;
+			m_waitHistogram = m_holdHistogram = null;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+}
+
+class ExtReadWriteLock {
+	ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+	// even while unlocked for writing, odd while a writer holds the lock; 0 is never a valid stamp.
+	// only the outermost acquire and release of a reentrant write lock move it
+	AtomicInteger m_version = new AtomicInteger(2);
+	
+	public void ExtReadLock() {
+		m_lock.readLock().lock();
+	}
+	
+	public void ExtReadUnlock() {
+		m_lock.readLock().unlock();
+	}
+	
+	public int ExtTryReadLock() {
+		return m_lock.readLock().tryLock()?1:0;
+	}
+	
+	public int ExtTimedReadLock(int timeout) {
+		try {
+			return m_lock.readLock().tryLock(timeout, TimeUnit.MILLISECONDS)?1:0;
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void ExtWriteLock() {
+		m_lock.writeLock().lock();
+		if(m_lock.getWriteHoldCount() == 1) m_version.incrementAndGet();
+	}
+	
+	public void ExtWriteUnlock() {
+		// bump while still holding the lock, so the next writer can't slip in between; a caller that
+		// doesn't hold it gets the exception from unlock() with the version left alone
+		if(m_lock.isWriteLockedByCurrentThread() && m_lock.getWriteHoldCount() == 1) m_version.incrementAndGet();
+		m_lock.writeLock().unlock();
+	}
+	
+	public int ExtTryWriteLock() {
+		if(!m_lock.writeLock().tryLock()) return 0;
+		if(m_lock.getWriteHoldCount() == 1) m_version.incrementAndGet();
+		return 1;
+	}
+	
+	public int ExtTimedWriteLock(int timeout) {
+		try {
+			if(!m_lock.writeLock().tryLock(timeout, TimeUnit.MILLISECONDS)) return 0;
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		if(m_lock.getWriteHoldCount() == 1) m_version.incrementAndGet();
+		return 1;
+	}
+	
+	public int ExtTryOptimisticRead() {
+		int version = m_version.get();
+		return (version & 1) == 0 ? version : 0;
+	}
+	
+	public int ExtValidate(int stamp) {
+		// the CAS is a full fence, so the caller's reads can't be reordered past the version check
+		return stamp != 0 && m_version.compareAndSet(stamp, stamp)?1:0;
 	}
 }
 
 class ExtCondVar {
 	Condition m_cond;
+	// stats are only written while holding the owning mutex
+	int m_waits;
+	int m_wakes;
+	int m_timeouts;
+	int m_signals;
+	long m_waitNanos;
+	long m_maxWaitNanos;
+	int[] m_waitHistogram;
 	
 	public void ExtInit(ExtMutex mutex) {
 		m_cond = mutex.m_lock.newCondition();
@@ -97,29 +368,284 @@ class ExtCondVar {
 		if(Thread.currentThread().isInterrupted()) {
 			throw new RuntimeException(new InterruptedException());
 		}
+		long start = BeginWait(mutex);
 		try {
 			m_cond.await();
 		} catch(InterruptedException e) {
 			throw new RuntimeException(e);
 		}
+		if(start != 0) EndWait(mutex, start, true);
 	}
 	
 	public void ExtTimedWait(ExtMutex mutex, float timeout) {
 		if(Thread.currentThread().isInterrupted()) {
 			throw new RuntimeException(new InterruptedException());
 		}
+		long start = BeginWait(mutex);
+		boolean woken;
 		try {
-			m_cond.await((long)timeout, TimeUnit.MILLISECONDS);
+			woken = m_cond.await((long)timeout, TimeUnit.MILLISECONDS);
 		} catch(InterruptedException e) {
 			throw new RuntimeException(e);
 		}
+		if(start != 0) EndWait(mutex, start, woken);
 	}
 	
 	public void ExtSignal() {
+		if(ExtThreadingStats.s_enabled) m_signals++;
 		m_cond.signal();
 	}
 	
 	public void ExtBroadcast() {
+		if(ExtThreadingStats.s_enabled) m_signals++;
 		m_cond.signalAll();
 	}
+	
+	// the mutex is released while waiting, so that time is not counted as holding it
+	long BeginWait(ExtMutex mutex) {
+		if(!ExtThreadingStats.s_enabled) return 0;
+		if(mutex.m_lockedAt != 0) mutex.RecordRelease();
+		m_waits++;
+		return System.nanoTime();
+	}
+	
+	void EndWait(ExtMutex mutex, long start, boolean woken) {
+		long now = System.nanoTime();
+		long wait = now - start;
+		if(woken) m_wakes++;
+		else m_timeouts++;
+		if(m_waitHistogram == null) m_waitHistogram = new int[ExtThreadingStats.HISTOGRAM_BUCKETS];
+		m_waitNanos += wait;
+		if(wait > m_maxWaitNanos) m_maxWaitNanos = wait;
+		ExtThreadingStats.Record(m_waitHistogram, wait);
+		if(mutex.m_lock.getHoldCount() == 1) mutex.m_lockedAt = now;
+	}
+	
+	// waits, wakes, timeouts, signals, total wait, max wait (times in us), then the wait histogram
+	public void ExtStats(int[] out) {
+		out[0] = m_waits;
+		out[1] = m_wakes;
+		out[2] = m_timeouts;
+		out[3] = m_signals;
+		out[4] = ExtThreadingStats.Micros(m_waitNanos);
+		out[5] = ExtThreadingStats.Micros(m_maxWaitNanos);
+		for(int i = 0; i < ExtThreadingStats.HISTOGRAM_BUCKETS; i++) {
+			out[6 + i] = m_waitHistogram != null ? m_waitHistogram[i] : 0;
+		}
+	}
+	
+	public void ExtResetStats() {
+		m_waits = m_wakes = m_timeouts = m_signals = 0;
+		m_waitNanos = m_maxWaitNanos = 0;
+		m_waitHistogram = null;
+	}
+}
+
+// direct park/unpark handoff between a coroutine and the thread resuming it
+// a volatile turn flag replaces the mutex/condvar pair, so a switch is one store and one unpark
+class ExtCoroutineHandoff {
+	static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+	volatile boolean m_coroutineTurn;
+	volatile Thread m_caller;
+	volatile Thread m_coroutine;
+	
+	// outside the coroutine: hand control to it (the first time, the coroutine thread is started instead of woken)
+	public void ExtSignalCoroutine() {
+		m_caller = Thread.currentThread();
+		m_coroutineTurn = true;
+		Thread coroutine = m_coroutine;
+		if(coroutine != null) LockSupport.unpark(coroutine);
+	}
+	
+	// outside the coroutine: block until it yields or finishes
+	public void ExtWaitCoroutine() {
+		AwaitTurn(false);
+	}
+	
+	// inside the coroutine: hand control back to the caller
+	public void ExtSignalCaller() {
+		m_coroutine = Thread.currentThread();
+		m_coroutineTurn = false;
+		Thread caller = m_caller;
+		if(caller != null) LockSupport.unpark(caller);
+	}
+	
+	// inside the coroutine: block until resumed
+	public void ExtWaitCaller() {
+		AwaitTurn(true);
+	}
+	
+	void AwaitTurn(boolean coroutineTurn) {
+		for(int i = 0; i < SPINS; i++) {
+			if(m_coroutineTurn == coroutineTurn) return;
+		}
+		while(m_coroutineTurn != coroutineTurn) {
+			LockSupport.park(this);
+			if(Thread.interrupted()) {
+				throw new RuntimeException(new InterruptedException());
+			}
+		}
+	}
+}
+
+class ExtAtomicInt {
+	AtomicInteger m_value = new AtomicInteger();
+	
+	public int ExtGet() {
+		return m_value.get();
+	}
+	
+	public void ExtSet(int value) {
+		m_value.set(value);
+	}
+	
+	public int ExtGetAndSet(int value) {
+		return m_value.getAndSet(value);
+	}
+	
+	public int ExtAddAndGet(int delta) {
+		return m_value.addAndGet(delta);
+	}
+	
+	public int ExtGetAndAdd(int delta) {
+		return m_value.getAndAdd(delta);
+	}
+	
+	public int ExtCompareAndSet(int expect, int update) {
+		return m_value.compareAndSet(expect, update)?1:0;
+	}
+}
+
+class ExtAtomicObject {
+	AtomicReference<Object> m_value = new AtomicReference<Object>();
+	
+	public Object ExtGet() {
+		return m_value.get();
+	}
+	
+	public void ExtSet(Object value) {
+		m_value.set(value);
+	}
+	
+	public Object ExtGetAndSet(Object value) {
+		return m_value.getAndSet(value);
+	}
+	
+	public int ExtCompareAndSet(Object expect, Object update) {
+		return m_value.compareAndSet(expect, update)?1:0;
+	}
+}
+
+// bounded single-producer/single-consumer ring buffer
+// each side caches the other's index so it only touches shared state when the cache says full/empty
+class ExtSpscQueue {
+	Object[] m_buffer;
+	int m_mask;
+	AtomicInteger m_head = new AtomicInteger();
+	AtomicInteger m_tail = new AtomicInteger();
+	int m_cachedHead;
+	int m_cachedTail;
+	
+	public void ExtInit(int capacity) {
+		int size = 1;
+		while(size < capacity) size <<= 1;
+		m_buffer = new Object[size];
+		m_mask = size - 1;
+	}
+	
+	public int ExtOffer(Object value) {
+		int tail = m_tail.get();
+		if(tail - m_cachedHead >= m_buffer.length) {
+			m_cachedHead = m_head.get();
+			if(tail - m_cachedHead >= m_buffer.length) return 0;
+		}
+		m_buffer[tail & m_mask] = value;
+		m_tail.lazySet(tail + 1);
+		return 1;
+	}
+	
+	public Object ExtPoll() {
+		int head = m_head.get();
+		if(head == m_cachedTail) {
+			m_cachedTail = m_tail.get();
+			if(head == m_cachedTail) return null;
+		}
+		int index = head & m_mask;
+		Object value = m_buffer[index];
+		m_buffer[index] = null;
+		m_head.lazySet(head + 1);
+		return value;
+	}
+	
+	// head first: read the other way round, a pop between the two reads could make it negative. a push or pop
+	// in between can still leave it a little out, so it's kept within 0..capacity
+	public int ExtSize() {
+		int head = m_head.get();
+		int size = m_tail.get() - head;
+		return size < 0 ? 0 : size > m_buffer.length ? m_buffer.length : size;
+	}
+	
+	public int ExtCapacity() {
+		return m_buffer.length;
+	}
+}
+
+// bounded multi-producer/single-consumer ring buffer (Vyukov-style per-slot sequence numbers)
+// producers claim a slot with a CAS on the tail, then publish it by advancing the slot's sequence
+class ExtMpscQueue {
+	Object[] m_buffer;
+	AtomicIntegerArray m_sequence;
+	int m_mask;
+	AtomicInteger m_head = new AtomicInteger();
+	AtomicInteger m_tail = new AtomicInteger();
+	
+	public void ExtInit(int capacity) {
+		int size = 1;
+		while(size < capacity) size <<= 1;
+		m_buffer = new Object[size];
+		m_sequence = new AtomicIntegerArray(size);
+		for(int i = 0; i < size; i++) m_sequence.set(i, i);
+		m_mask = size - 1;
+	}
+	
+	public int ExtOffer(Object value) {
+		int tail = m_tail.get();
+		for(;;) {
+			int diff = m_sequence.get(tail & m_mask) - tail;
+			if(diff == 0) {
+				if(m_tail.compareAndSet(tail, tail + 1)) break;
+				tail = m_tail.get();
+			} else if(diff < 0) {
+				return 0;
+			} else {
+				tail = m_tail.get();
+			}
+		}
+		m_buffer[tail & m_mask] = value;
+		m_sequence.set(tail & m_mask, tail + 1);
+		return 1;
+	}
+	
+	public Object ExtPoll() {
+		int head = m_head.get();
+		int index = head & m_mask;
+		if(m_sequence.get(index) - (head + 1) < 0) return null;
+		Object value = m_buffer[index];
+		m_buffer[index] = null;
+		m_sequence.lazySet(index, head + m_buffer.length);
+		m_head.lazySet(head + 1);
+		return value;
+	}
+	
+	// head first: read the other way round, a pop between the two reads could make it negative. a push or pop
+	// in between can still leave it a little out, so it's kept within 0..capacity
+	public int ExtSize() {
+		int head = m_head.get();
+		int size = m_tail.get() - head;
+		return size < 0 ? 0 : size > m_buffer.length ? m_buffer.length : size;
+	}
+	
+	public int ExtCapacity() {
+		return m_buffer.length;
+	}
 }